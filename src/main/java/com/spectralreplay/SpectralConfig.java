@@ -0,0 +1,62 @@
+package com.spectralreplay;
+
+import org.bukkit.configuration.file.FileConfiguration;
+
+// Gameplay settings read once from config.yml. Hot paths read these fields instead of looking
+// keys up in the YAML tree; /spectral reload builds a new snapshot and swaps it in whole, so a
+// reader never sees half of one reload. Database settings are read when the database opens and
+// still need a restart.
+public final class SpectralConfig {
+
+    public final long minDelay;
+    public final long maxDelay;
+    public final int maxConcurrentReplays;
+    // -1 for no limit.
+    public final int maxPlaysPerReplay;
+    public final boolean armorPvp;
+    public final boolean armorDeath;
+    public final long respawnProtectionMillis;
+
+    public final boolean proximityEnabled;
+    public final double proximityRadius;
+    public final long proximityCooldownMillis;
+    public final boolean prefetchEnabled;
+    public final long prefetchLookaheadMillis;
+    public final int prefetchMaxReplays;
+
+    public final long placedInterval;
+    public final double placedActivationRadius;
+
+    public final boolean keyframeRecording;
+    public final double keyframePositionThreshold;
+    public final float keyframeRotationThreshold;
+
+    private SpectralConfig(FileConfiguration config) {
+        this.minDelay = Math.max(1L, config.getLong("min-delay", 1200L));
+        this.maxDelay = Math.max(minDelay, config.getLong("max-delay", 3600L));
+        // PVP replays need two slots.
+        this.maxConcurrentReplays = config.getInt("max-concurrent-replays", 5);
+        this.maxPlaysPerReplay = config.getInt("max-plays-per-replay", 5);
+        this.armorPvp = config.getBoolean("armor-pvp", true);
+        this.armorDeath = config.getBoolean("armor-death", false);
+        this.respawnProtectionMillis = config.getLong("respawn-protection-duration", 10) * 1000;
+
+        this.proximityEnabled = config.getBoolean("proximity-replay.enabled", true);
+        this.proximityRadius = config.getDouble("proximity-replay.radius", 5.0);
+        this.proximityCooldownMillis = config.getLong("proximity-replay.cooldown", 600) * 1000;
+        this.prefetchEnabled = config.getBoolean("proximity-replay.prefetch.enabled", true);
+        this.prefetchLookaheadMillis = Math.max(1L, config.getLong("proximity-replay.prefetch.lookahead", 3L)) * 1000;
+        this.prefetchMaxReplays = Math.max(1, config.getInt("proximity-replay.prefetch.max-replays", 32));
+
+        this.placedInterval = Math.max(20L, config.getLong("placed-replays.interval", 600L));
+        this.placedActivationRadius = Math.max(1.0, config.getDouble("placed-replays.activation-radius", 64.0));
+
+        this.keyframeRecording = config.getString("recording.mode", "full").equalsIgnoreCase("keyframe");
+        this.keyframePositionThreshold = config.getDouble("recording.position-threshold", 0.05);
+        this.keyframeRotationThreshold = (float) config.getDouble("recording.rotation-threshold", 2.0);
+    }
+
+    public static SpectralConfig load(FileConfiguration config) {
+        return new SpectralConfig(config);
+    }
+}
@@ -10,10 +10,12 @@ public class SpectralReplay extends JavaPlugin {
 
     private ReplayManager replayManager;
     private DatabaseManager databaseManager;
+    private volatile SpectralConfig spectralConfig;
 
     @Override
     public void onEnable() {
         saveDefaultConfig();
+        this.spectralConfig = loadSpectralConfig();
 
         if (getServer().getPluginManager().getPlugin("Citizens") == null || !getServer().getPluginManager().getPlugin("Citizens").isEnabled()) {
             getLogger().severe("Citizens 2.0 not found or not enabled! Disabling Spectral Replay.");
@@ -22,6 +24,8 @@ public class SpectralReplay extends JavaPlugin {
         }
 
         this.databaseManager = new DatabaseManager(this);
+        this.databaseManager.getMigrator().start();
+        this.databaseManager.getRetention().start();
 
         this.replayManager = new ReplayManager(this, databaseManager);
         
@@ -56,6 +60,25 @@ public class SpectralReplay extends JavaPlugin {
         getLogger().info("Spectral Replay has been disabled!");
     }
 
+    public SpectralConfig getSpectralConfig() {
+        return spectralConfig;
+    }
+
+    // Re-reads config.yml and swaps in a fresh snapshot.
+    public SpectralConfig reloadSpectralConfig() {
+        reloadConfig();
+        spectralConfig = loadSpectralConfig();
+        return spectralConfig;
+    }
+
+    private SpectralConfig loadSpectralConfig() {
+        SpectralConfig config = SpectralConfig.load(getConfig());
+        if (config.maxConcurrentReplays < 2) {
+            getLogger().warning("max-concurrent-replays is " + config.maxConcurrentReplays + "; PVP replays need 2 slots and will not play.");
+        }
+        return config;
+    }
+
     public ReplayManager getReplayManager() {
         return replayManager;
     }
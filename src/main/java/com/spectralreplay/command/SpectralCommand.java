@@ -1,6 +1,9 @@
 package com.spectralreplay.command;
 
 import com.spectralreplay.database.DatabaseManager;
+import com.spectralreplay.database.ReplayCache;
+import com.spectralreplay.database.ReplayMigrator;
+import com.spectralreplay.database.ReplayRetention;
 import com.spectralreplay.manager.ReplayManager;
 import com.spectralreplay.SpectralReplay;
 import org.bukkit.Location;
@@ -10,7 +13,7 @@ import org.bukkit.command.CommandExecutor;
 import org.bukkit.command.CommandSender;
 import org.bukkit.entity.Player;
 
-import java.util.List;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ThreadLocalRandom;
 
 public class SpectralCommand implements CommandExecutor {
@@ -42,43 +45,29 @@ public class SpectralCommand implements CommandExecutor {
             if (args.length > 0) {
                 if (args[0].equalsIgnoreCase("play")) {
                     double radius = 20.0;
-                    Location loc = player.getLocation();
-                    
-                    new org.bukkit.scheduler.BukkitRunnable() {
-                        @Override
-                        public void run() {
-                            try {
-                                List<DatabaseManager.ReplayData> replays = databaseManager.getNearbyReplays(loc, radius, null);
+                    databaseManager.getNearbyReplayMetaAsync(player.getLocation(), radius, null)
+                            .thenAcceptAsync(replays -> {
+                                if (replays.isEmpty()) {
+                                    player.sendMessage(ChatColor.YELLOW + "No replays found within " + radius + " blocks.");
+                                    return;
+                                }
+
+                                DatabaseManager.ReplayData replay = replays.get(ThreadLocalRandom.current().nextInt(replays.size()));
+                                replayManager.playGhostReplay(replay);
                                 
-                                new org.bukkit.scheduler.BukkitRunnable() {
-                                    @Override
-                                    public void run() {
-                                        if (replays.isEmpty()) {
-                                            player.sendMessage(ChatColor.YELLOW + "No replays found within " + radius + " blocks.");
-                                            return;
-                                        }
-
-                                        DatabaseManager.ReplayData replay = replays.get(ThreadLocalRandom.current().nextInt(replays.size()));
-                                        replayManager.playGhostReplay(replay);
-                                        
-                                        player.sendMessage(ChatColor.GREEN + "Playing a random ghost replay from " + replays.size() + " found nearby.");
-                                    }
-                                }.runTask(plugin);
-                            } catch (Exception e) {
+                                player.sendMessage(ChatColor.GREEN + "Playing a random ghost replay from " + replays.size() + " found nearby.");
+                            }, databaseManager.mainThreadExecutor())
+                            .exceptionally(e -> {
                                 player.sendMessage(ChatColor.RED + "Error fetching replays: " + e.getMessage());
                                 plugin.getLogger().warning("Error in /spectral play: " + e.getMessage());
-                            }
-                        }
-                    }.runTaskAsynchronously(plugin);
+                                return null;
+                            });
                     return true;
                 }
                 
                 if (args[0].equalsIgnoreCase("list")) {
-                    new org.bukkit.scheduler.BukkitRunnable() {
-                        @Override
-                        public void run() {
-                            try {
-                                List<DatabaseManager.ReplayData> recent = databaseManager.getRecentReplays(10);
+                    databaseManager.getRecentReplaysAsync(10)
+                            .thenAcceptAsync(recent -> {
                                 player.sendMessage(ChatColor.GOLD + "--- Recent Replays ---");
                                 for (DatabaseManager.ReplayData data : recent) {
                                     String playerName = org.bukkit.Bukkit.getOfflinePlayer(data.uuid).getName();
@@ -87,12 +76,12 @@ public class SpectralCommand implements CommandExecutor {
                                     player.sendMessage(ChatColor.YELLOW + "ID: " + data.id + " | Player: " + playerName + " | Type: " + data.type + " | Loc: " + 
                                         String.format("%.0f, %.0f, %.0f", data.location.getX(), data.location.getY(), data.location.getZ()));
                                 }
-                            } catch (Exception e) {
+                            }, databaseManager.mainThreadExecutor())
+                            .exceptionally(e -> {
                                 player.sendMessage(ChatColor.RED + "Error listing replays: " + e.getMessage());
                                 plugin.getLogger().warning("Error in /spectral list: " + e.getMessage());
-                            }
-                        }
-                    }.runTaskAsynchronously(plugin);
+                                return null;
+                            });
                     return true;
                 }
 
@@ -104,36 +93,27 @@ public class SpectralCommand implements CommandExecutor {
                     try {
                         int id = Integer.parseInt(args[1]);
                         Location loc = player.getLocation();
-                        
-                        new org.bukkit.scheduler.BukkitRunnable() {
-                            @Override
-                            public void run() {
-                                try {
-                                    DatabaseManager.ReplayData data = databaseManager.getReplayById(id);
-                                    if (data == null) {
+
+                        // null when the replay does not exist, -1 when the placement could not be saved.
+                        databaseManager.getReplayByIdAsync(id)
+                                .thenCompose(data -> data != null
+                                        ? databaseManager.savePlacedReplayAsync(id, loc)
+                                        : CompletableFuture.<Integer>completedFuture(null))
+                                .thenAcceptAsync(placedId -> {
+                                    if (placedId == null) {
                                         player.sendMessage(ChatColor.RED + "Replay not found.");
-                                        return;
+                                    } else if (placedId != -1) {
+                                        replayManager.startPlacedReplayTask(new DatabaseManager.PlacedReplay(placedId, id, loc));
+                                        player.sendMessage(ChatColor.GREEN + "Replay placed at your location! Placed ID: " + placedId);
+                                    } else {
+                                        player.sendMessage(ChatColor.RED + "Failed to save placed replay.");
                                     }
-                                    
-                                    int placedId = databaseManager.savePlacedReplay(id, loc);
-                                    
-                                    new org.bukkit.scheduler.BukkitRunnable() {
-                                        @Override
-                                        public void run() {
-                                            if (placedId != -1) {
-                                                replayManager.startPlacedReplayTask(new DatabaseManager.PlacedReplay(placedId, id, loc));
-                                                player.sendMessage(ChatColor.GREEN + "Replay placed at your location! Placed ID: " + placedId);
-                                            } else {
-                                                player.sendMessage(ChatColor.RED + "Failed to save placed replay.");
-                                            }
-                                        }
-                                    }.runTask(plugin);
-                                } catch (Exception e) {
+                                }, databaseManager.mainThreadExecutor())
+                                .exceptionally(e -> {
                                     player.sendMessage(ChatColor.RED + "Error placing replay: " + e.getMessage());
                                     plugin.getLogger().warning("Error in /spectral place: " + e.getMessage());
-                                }
-                            }
-                        }.runTaskAsynchronously(plugin);
+                                    return null;
+                                });
                     } catch (NumberFormatException e) {
                         player.sendMessage(ChatColor.RED + "Invalid ID format.");
                         return true;
@@ -142,22 +122,19 @@ public class SpectralCommand implements CommandExecutor {
                 }
             
             if (args[0].equalsIgnoreCase("list-placed")) {
-                new org.bukkit.scheduler.BukkitRunnable() {
-                    @Override
-                    public void run() {
-                        try {
-                            List<DatabaseManager.PlacedReplay> placed = databaseManager.getAllPlacedReplays();
+                databaseManager.getAllPlacedReplaysAsync()
+                        .thenAcceptAsync(placed -> {
                             player.sendMessage(ChatColor.GOLD + "--- Placed Replays ---");
                             for (DatabaseManager.PlacedReplay p : placed) {
                                 player.sendMessage(ChatColor.YELLOW + "ID: " + p.id + " | ReplayID: " + p.replayId + " | Loc: " + 
                                     String.format("%.0f, %.0f, %.0f", p.location.getX(), p.location.getY(), p.location.getZ()));
                             }
-                        } catch (Exception e) {
+                        }, databaseManager.mainThreadExecutor())
+                        .exceptionally(e -> {
                             player.sendMessage(ChatColor.RED + "Error listing placed replays: " + e.getMessage());
                             plugin.getLogger().warning("Error in /spectral list-placed: " + e.getMessage());
-                        }
-                    }
-                }.runTaskAsynchronously(plugin);
+                            return null;
+                        });
                 return true;
             }
 
@@ -189,20 +166,80 @@ public class SpectralCommand implements CommandExecutor {
                 }
                 try {
                     int id = Integer.parseInt(args[1]);
-                    if (databaseManager.deleteReplay(id)) {
-                        player.sendMessage(ChatColor.GREEN + "Replay deleted from database.");
-                    } else {
-                        player.sendMessage(ChatColor.RED + "Replay not found or could not be deleted.");
-                    }
+                    databaseManager.deleteReplayAsync(id)
+                            .thenAcceptAsync(deleted -> {
+                                if (deleted) {
+                                    player.sendMessage(ChatColor.GREEN + "Replay deleted from database.");
+                                } else {
+                                    player.sendMessage(ChatColor.RED + "Replay not found or could not be deleted.");
+                                }
+                            }, databaseManager.mainThreadExecutor())
+                            .exceptionally(e -> {
+                                player.sendMessage(ChatColor.RED + "Error deleting replay: " + e.getMessage());
+                                plugin.getLogger().warning("Error in /spectral delete: " + e.getMessage());
+                                return null;
+                            });
                 } catch (NumberFormatException e) {
                     player.sendMessage(ChatColor.RED + "Invalid ID.");
-                } catch (Exception e) {
-                    player.sendMessage(ChatColor.RED + "Error deleting replay: " + e.getMessage());
-                    plugin.getLogger().warning("Error in /spectral delete: " + e.getMessage());
                 }
                 return true;
             }
 
+            if (args[0].equalsIgnoreCase("migrate")) {
+                ReplayMigrator migrator = databaseManager.getMigrator();
+                databaseManager.supplyAsync(migrator::countRemaining)
+                        .thenAcceptAsync(remaining -> {
+                            String state = migrator.isComplete() ? "complete" : (migrator.isRunning() ? "running" : "stopped");
+                            player.sendMessage(ChatColor.GOLD + "--- Replay Migration ---");
+                            player.sendMessage(ChatColor.YELLOW + "Status: " + state + " | Checkpoint: ID " + migrator.getLastId()
+                                    + (remaining >= 0 ? " | Remaining: " + remaining : ""));
+                            player.sendMessage(ChatColor.YELLOW + "Re-encoded: " + migrator.getMigratedCount() + " | Failed: " + migrator.getFailedCount()
+                                    + " | Saved: " + ReplayMigrator.formatBytes(migrator.getBytesSaved()));
+                        }, databaseManager.mainThreadExecutor())
+                        .exceptionally(e -> {
+                            player.sendMessage(ChatColor.RED + "Error reading migration status: " + e.getMessage());
+                            return null;
+                        });
+                return true;
+            }
+
+            if (args[0].equalsIgnoreCase("cache")) {
+                ReplayCache cache = databaseManager.getReplayCache();
+                long lookups = cache.getHits() + cache.getMisses();
+                player.sendMessage(ChatColor.GOLD + "--- Replay Cache ---");
+                player.sendMessage(ChatColor.YELLOW + "Replays: " + cache.getEntryCount() + " | Size: " + ReplayMigrator.formatBytes(cache.getSizeBytes())
+                        + " / " + ReplayMigrator.formatBytes(cache.getMaxBytes()));
+                player.sendMessage(ChatColor.YELLOW + "Hits: " + cache.getHits() + " | Misses: " + cache.getMisses() + " | Evictions: " + cache.getEvictions()
+                        + (lookups > 0 ? String.format(" | Hit rate: %.1f%%", cache.getHits() * 100.0 / lookups) : ""));
+                player.sendMessage(ChatColor.YELLOW + "Prefetched: " + replayManager.getPrefetchedCount() + " | Same-tick triggers: " + replayManager.getPrefetchHits());
+                return true;
+            }
+
+            if (args[0].equalsIgnoreCase("retention")) {
+                ReplayRetention retention = databaseManager.getRetention();
+                databaseManager.supplyAsync(retention::usedBytes)
+                        .thenAcceptAsync(used -> {
+                            player.sendMessage(ChatColor.GOLD + "--- Replay Retention ---");
+                            player.sendMessage(ChatColor.YELLOW + "Status: " + (retention.isRunning() ? "running" : "stopped")
+                                    + (used >= 0 ? " | Database: " + ReplayMigrator.formatBytes(used) : ""));
+                            player.sendMessage(ChatColor.YELLOW + "Deleted: " + retention.getDeletedCount() + " | Replay data: "
+                                    + ReplayMigrator.formatBytes(retention.getDataBytesReclaimed()) + " | Returned to disk: "
+                                    + ReplayMigrator.formatBytes(retention.getFileBytesReclaimed()));
+                        }, databaseManager.mainThreadExecutor())
+                        .exceptionally(e -> {
+                            player.sendMessage(ChatColor.RED + "Error reading retention status: " + e.getMessage());
+                            return null;
+                        });
+                return true;
+            }
+
+            if (args[0].equalsIgnoreCase("reload")) {
+                plugin.reloadSpectralConfig();
+                player.sendMessage(ChatColor.GREEN + "Configuration reloaded.");
+                player.sendMessage(ChatColor.GRAY + "Database settings apply after a restart.");
+                return true;
+            }
+
             if (args[0].equalsIgnoreCase("reset-cooldowns")) {
                 replayManager.resetCooldowns();
                 player.sendMessage(ChatColor.GREEN + "All replay cooldowns have been reset.");
@@ -218,6 +255,10 @@ public class SpectralCommand implements CommandExecutor {
         player.sendMessage(ChatColor.WHITE + "/spectral remove <id> " + ChatColor.GRAY + "- Remove a placed replay");
         player.sendMessage(ChatColor.WHITE + "/spectral delete <id> " + ChatColor.GRAY + "- Delete a replay from database");
         player.sendMessage(ChatColor.WHITE + "/spectral reset-cooldowns " + ChatColor.GRAY + "- Reset all replay cooldowns");
+        player.sendMessage(ChatColor.WHITE + "/spectral migrate " + ChatColor.GRAY + "- Show replay format migration progress");
+        player.sendMessage(ChatColor.WHITE + "/spectral cache " + ChatColor.GRAY + "- Show decoded replay cache statistics");
+        player.sendMessage(ChatColor.WHITE + "/spectral retention " + ChatColor.GRAY + "- Show replays and space reclaimed by retention");
+        player.sendMessage(ChatColor.WHITE + "/spectral reload " + ChatColor.GRAY + "- Reload config.yml");
         return true;
         
         } catch (Exception e) {
@@ -0,0 +1,97 @@
+package com.spectralreplay.database;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+// Compression applied to the body of a replay blob. The id is stored in the blob header so
+// a database can hold blobs written with any codec.
+enum BlobCodec {
+    NONE(0),
+    DEFLATE(1);
+
+    final int id;
+
+    BlobCodec(int id) {
+        this.id = id;
+    }
+
+    static BlobCodec byId(int id) throws IOException {
+        for (BlobCodec codec : values()) {
+            if (codec.id == id) return codec;
+        }
+        throw new IOException("Unknown replay blob codec: " + id);
+    }
+
+    static BlobCodec fromConfig(String name) {
+        if (name != null) {
+            for (BlobCodec codec : values()) {
+                if (codec.name().equalsIgnoreCase(name.trim())) return codec;
+            }
+        }
+        return DEFLATE;
+    }
+
+    byte[] compress(byte[] data) {
+        switch (this) {
+            case DEFLATE:
+                return deflate(data);
+            default:
+                return data;
+        }
+    }
+
+    // For NONE the returned buffer is a view of the input, so no bytes are copied.
+    ByteBuffer decompress(ByteBuffer data, int length) throws IOException {
+        switch (this) {
+            case DEFLATE:
+                return ByteBuffer.wrap(inflate(data, length));
+            default:
+                return data.slice();
+        }
+    }
+
+    private static byte[] deflate(byte[] data) {
+        Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION);
+        try {
+            deflater.setInput(data);
+            deflater.finish();
+            byte[] out = new byte[Math.max(64, data.length / 2)];
+            int length = 0;
+            while (!deflater.finished()) {
+                if (length == out.length) {
+                    out = Arrays.copyOf(out, out.length * 2);
+                }
+                length += deflater.deflate(out, length, out.length - length);
+            }
+            return Arrays.copyOf(out, length);
+        } finally {
+            deflater.end();
+        }
+    }
+
+    private static byte[] inflate(ByteBuffer data, int length) throws IOException {
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(data);
+            byte[] out = new byte[length];
+            int read = 0;
+            while (read < length && !inflater.finished()) {
+                int n = inflater.inflate(out, read, length - read);
+                if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) break;
+                read += n;
+            }
+            if (read != length) {
+                throw new IOException("Truncated deflate replay data");
+            }
+            return out;
+        } catch (DataFormatException e) {
+            throw new IOException("Corrupt deflate replay data", e);
+        } finally {
+            inflater.end();
+        }
+    }
+}
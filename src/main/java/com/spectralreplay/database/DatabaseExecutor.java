@@ -0,0 +1,89 @@
+package com.spectralreplay.database;
+
+import com.spectralreplay.SpectralReplay;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Runs blocking database reads for the async API, off both the main thread and Bukkit's shared
+// async pool. On Java 21+ every task gets its own virtual thread; older runtimes use a small fixed
+// pool. At most max-pending tasks may be queued or running at once; past that, submissions fail
+// with RejectedExecutionException so callers shed load instead of piling it onto the database.
+class DatabaseExecutor implements Executor {
+
+    private final SpectralReplay plugin;
+    private final ExecutorService delegate;
+    private final Semaphore permits;
+    private final boolean virtual;
+
+    DatabaseExecutor(SpectralReplay plugin) {
+        this.plugin = plugin;
+        this.permits = new Semaphore(Math.max(1, plugin.getConfig().getInt("database.async.max-pending", 256)));
+
+        ExecutorService virtualExecutor = plugin.getConfig().getBoolean("database.async.virtual-threads", true)
+                ? newVirtualThreadExecutor() : null;
+        this.virtual = virtualExecutor != null;
+        if (virtualExecutor != null) {
+            this.delegate = virtualExecutor;
+        } else {
+            int threads = Math.max(1, plugin.getConfig().getInt("database.async.threads",
+                    plugin.getConfig().getInt("database.reader-connections", 4)));
+            AtomicInteger counter = new AtomicInteger();
+            this.delegate = Executors.newFixedThreadPool(threads, runnable -> {
+                Thread thread = new Thread(runnable, "SpectralReplay-DB-Async-" + counter.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+    }
+
+    boolean isVirtual() {
+        return virtual;
+    }
+
+    @Override
+    public void execute(Runnable task) {
+        if (!permits.tryAcquire()) {
+            throw new RejectedExecutionException("Too many pending database tasks");
+        }
+        try {
+            delegate.execute(() -> {
+                try {
+                    task.run();
+                } finally {
+                    permits.release();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+    void shutdown() {
+        delegate.shutdown();
+        try {
+            if (!delegate.awaitTermination(5, TimeUnit.SECONDS)) {
+                plugin.getLogger().warning("Database tasks still running on shutdown were abandoned.");
+                delegate.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            delegate.shutdownNow();
+        }
+    }
+
+    // Executors.newVirtualThreadPerTaskExecutor() only exists on Java 21+, and the plugin is built for 17.
+    private static ExecutorService newVirtualThreadExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            return null;
+        }
+    }
+}
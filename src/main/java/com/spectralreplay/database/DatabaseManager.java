@@ -1,67 +1,137 @@
 package com.spectralreplay.database;
 
 import com.spectralreplay.SpectralReplay;
-import com.spectralreplay.model.PlayerAction;
+import com.spectralreplay.model.FrameCursor;
 import com.spectralreplay.model.ReplayFrame;
+import com.spectralreplay.model.ReplayTrack;
 import com.spectralreplay.model.ReplayType;
 import org.bukkit.Bukkit;
 import org.bukkit.Location;
 import org.bukkit.World;
-import org.bukkit.inventory.ItemStack;
-import org.bukkit.util.io.BukkitObjectInputStream;
-import org.bukkit.util.io.BukkitObjectOutputStream;
+import org.bukkit.scheduler.BukkitRunnable;
 
 import java.io.*;
+import java.nio.ByteBuffer;
 import java.sql.*;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.UUID;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
 import java.util.logging.Level;
 
 public class DatabaseManager {
 
+    private static final String DEATH_REPLAYS_COLUMNS = "(" +
+            "id INTEGER PRIMARY KEY AUTOINCREMENT," +
+            "uuid VARCHAR(36) NOT NULL," +
+            "world VARCHAR(50) NOT NULL," +
+            "x DOUBLE NOT NULL," +
+            "y DOUBLE NOT NULL," +
+            "z DOUBLE NOT NULL," +
+            "timestamp LONG NOT NULL," +
+            "type VARCHAR(20) DEFAULT 'DEATH'," +
+            "play_count INTEGER DEFAULT 0," +
+            "chunk_x INTEGER," +
+            "chunk_z INTEGER," +
+            "match_id INTEGER" +
+            ")";
+    private static final int SPLIT_BATCH_SIZE = 500;
+    private static final String META_COLUMNS = "id, uuid, world, x, y, z, timestamp, type, play_count, match_id";
+
     private final SpectralReplay plugin;
     private Connection connection;
+    private final ReaderPool readers;
     private final ReentrantLock connectionLock = new ReentrantLock();
+    private final ItemDictionary itemDictionary;
+    private final ReplaySerializer serializer;
+    private final ReplayCache replayCache;
+    private final DatabaseWriter writer;
+    private final ReplayStore store;
+    private final ReplayMigrator migrator;
+    private final ReplayRetention retention;
+    private final PlayCountBuffer playCounts;
+    private final DatabaseExecutor executor;
+    private final Executor mainThreadExecutor;
+    private final long asyncTimeoutMillis;
+    private final ReplayGrid replayGrid = new ReplayGrid();
 
     public DatabaseManager(SpectralReplay plugin) {
         this.plugin = plugin;
+        this.readers = new ReaderPool(databaseUrl(), plugin.getConfig().getInt("database.reader-connections", 4));
+        this.itemDictionary = new ItemDictionary(plugin, this);
+        this.serializer = new ReplaySerializer(plugin, BlobCodec.fromConfig(plugin.getConfig().getString("database.compression", "deflate")), itemDictionary);
+        this.replayCache = new ReplayCache(plugin.getConfig().getLong("database.cache.size-mb", 32L) * 1024L * 1024L);
         initialize();
+        this.writer = new DatabaseWriter(plugin, this, itemDictionary, connectionLock);
+        this.store = openStore();
+        writer.setStore(store);
+        this.migrator = new ReplayMigrator(plugin, this, serializer, writer, store);
+        this.retention = new ReplayRetention(plugin, this, writer, store, serializer, itemDictionary);
+        this.playCounts = new PlayCountBuffer(plugin, writer, replayGrid);
+        playCounts.start();
+        this.executor = new DatabaseExecutor(plugin);
+        this.mainThreadExecutor = task -> {
+            if (Bukkit.isPrimaryThread()) {
+                task.run();
+            } else {
+                Bukkit.getScheduler().runTask(plugin, task);
+            }
+        };
+        this.asyncTimeoutMillis = Math.max(1L, plugin.getConfig().getLong("database.async.timeout", 10000L));
+        loadReplayGrid();
     }
 
-    private synchronized Connection getConnection() throws SQLException {
+    // The writer connection. Only DatabaseWriter and code running inside its operations write
+    // through it; everything else reads through openReader().
+    synchronized Connection getConnection() throws SQLException {
         if (connection == null || connection.isClosed()) {
-            try {
-                File dataFolder = new File(plugin.getDataFolder(), "database.db");
-                if (!dataFolder.getParentFile().exists()) {
-                    dataFolder.getParentFile().mkdirs();
-                }
-                Class.forName("org.sqlite.JDBC");
-                connection = DriverManager.getConnection("jdbc:sqlite:" + dataFolder.getAbsolutePath());
-            } catch (ClassNotFoundException e) {
-                throw new SQLException("SQLite JDBC driver not found", e);
-            }
+            connection = DriverManager.getConnection(databaseUrl());
         }
         return connection;
     }
 
+    ReaderPool.Lease openReader() throws SQLException {
+        return readers.acquire();
+    }
+
+    ReaderPool getReaders() {
+        return readers;
+    }
+
+    private String databaseUrl() {
+        File dataFolder = new File(plugin.getDataFolder(), "database.db");
+        if (!dataFolder.getParentFile().exists()) {
+            dataFolder.getParentFile().mkdirs();
+        }
+        try {
+            Class.forName("org.sqlite.JDBC");
+        } catch (ClassNotFoundException e) {
+            plugin.getLogger().severe("SQLite JDBC driver not found");
+        }
+        return "jdbc:sqlite:" + dataFolder.getAbsolutePath();
+    }
+
     private void initialize() {
         try {
             try (Statement statement = getConnection().createStatement()) {
-                statement.execute("CREATE TABLE IF NOT EXISTS death_replays (" +
-                        "id INTEGER PRIMARY KEY AUTOINCREMENT," +
-                        "uuid VARCHAR(36) NOT NULL," +
-                        "world VARCHAR(50) NOT NULL," +
-                        "x DOUBLE NOT NULL," +
-                        "y DOUBLE NOT NULL," +
-                        "z DOUBLE NOT NULL," +
-                        "timestamp LONG NOT NULL," +
-                        "replay_data BLOB NOT NULL," +
-                        "type VARCHAR(20) DEFAULT 'DEATH'," +
-                        "play_count INTEGER DEFAULT 0" +
-                        ")");
-                
+                // WAL lets readers run alongside the writer's transaction; NORMAL only syncs at
+                // checkpoints, which is safe in WAL mode and much cheaper than syncing every commit.
+                statement.execute("PRAGMA journal_mode=WAL");
+                statement.execute("PRAGMA synchronous=NORMAL");
+
+                statement.execute("CREATE TABLE IF NOT EXISTS death_replays " + DEATH_REPLAYS_COLUMNS);
+                SqliteReplayStore.createTable(statement);
+                SegmentReplayStore.createTable(statement);
+
+                boolean inlineBlobs = false;
                 try {
                     DatabaseMetaData md = connection.getMetaData();
                     
@@ -76,10 +146,45 @@ public class DatabaseManager {
                         statement.execute("ALTER TABLE death_replays ADD COLUMN play_count INTEGER DEFAULT 0");
                     }
                     rs.close();
+
+                    rs = md.getColumns(null, null, "death_replays", "chunk_x");
+                    if (!rs.next()) {
+                        statement.execute("ALTER TABLE death_replays ADD COLUMN chunk_x INTEGER");
+                        statement.execute("ALTER TABLE death_replays ADD COLUMN chunk_z INTEGER");
+                    }
+                    rs.close();
+
+                    rs = md.getColumns(null, null, "death_replays", "match_id");
+                    if (!rs.next()) {
+                        statement.execute("ALTER TABLE death_replays ADD COLUMN match_id INTEGER");
+                        // Older PVP pairs were linked only by sharing a timestamp.
+                        statement.execute("UPDATE death_replays SET match_id = timestamp WHERE type = 'PVP'");
+                    }
+                    rs.close();
+
+                    rs = md.getColumns(null, null, "death_replays", "replay_data");
+                    inlineBlobs = rs.next();
+                    rs.close();
                 } catch (SQLException ignored) {
                     plugin.getLogger().warning("Failed to check/add columns: " + ignored.getMessage());
                 }
 
+                // Rows written before the chunk columns existed: floor(x) >> 4, with the cast
+                // corrected for negative coordinates.
+                statement.execute("UPDATE death_replays SET " +
+                        "chunk_x = (CAST(x AS INTEGER) - (x < CAST(x AS INTEGER))) >> 4, " +
+                        "chunk_z = (CAST(z AS INTEGER) - (z < CAST(z AS INTEGER))) >> 4 " +
+                        "WHERE chunk_x IS NULL OR chunk_z IS NULL");
+                if (inlineBlobs) {
+                    splitReplayBlobs(statement);
+                }
+                // The timestamp column lets retention find the oldest replays of a chunk from the index.
+                statement.execute("DROP INDEX IF EXISTS idx_death_replays_chunk");
+                statement.execute("CREATE INDEX IF NOT EXISTS idx_death_replays_chunk_time ON death_replays (world, chunk_x, chunk_z, timestamp)");
+                statement.execute("CREATE INDEX IF NOT EXISTS idx_death_replays_timestamp ON death_replays (timestamp)");
+                statement.execute("CREATE INDEX IF NOT EXISTS idx_death_replays_play_count ON death_replays (play_count)");
+                statement.execute("CREATE INDEX IF NOT EXISTS idx_death_replays_match ON death_replays (match_id)");
+
                 statement.execute("CREATE TABLE IF NOT EXISTS placed_replays (" +
                         "id INTEGER PRIMARY KEY AUTOINCREMENT," +
                         "replay_id INTEGER NOT NULL," +
@@ -90,6 +195,9 @@ public class DatabaseManager {
                         "yaw FLOAT NOT NULL," +
                         "pitch FLOAT NOT NULL" +
                         ")");
+
+                ItemDictionary.createTable(statement);
+                ReplayMigrator.createTable(statement);
             }
         } catch (Exception e) {
             plugin.getLogger().log(Level.SEVERE, "Could not initialize database", e);
@@ -97,255 +205,450 @@ public class DatabaseManager {
         }
     }
 
-    public int saveReplay(UUID playerUUID, Location deathLocation, List<ReplayFrame> frames, ReplayType type, long timestamp) {
-        String sql = "INSERT INTO death_replays (uuid, world, x, y, z, timestamp, replay_data, type) VALUES (?, ?, ?, ?, ?, ?, ?, ?)";
-        
-        connectionLock.lock();
-        try (PreparedStatement ps = getConnection().prepareStatement(sql, Statement.RETURN_GENERATED_KEYS)) {
-            ps.setString(1, playerUUID.toString());
-            ps.setString(2, deathLocation.getWorld().getName());
-            ps.setDouble(3, deathLocation.getX());
-            ps.setDouble(4, deathLocation.getY());
-            ps.setDouble(5, deathLocation.getZ());
-            ps.setLong(6, timestamp);
-            ps.setBytes(7, serializeFrames(frames));
-            ps.setString(8, type.name());
-            
-            ps.executeUpdate();
-            
-            try (ResultSet rs = ps.getGeneratedKeys()) {
-                if (rs.next()) {
-                    return rs.getInt(1);
+    // Segment files once they hold replays, even if the config has since been switched back.
+    private ReplayStore openStore() {
+        boolean segments = plugin.getConfig().getString("database.storage", "sqlite").equalsIgnoreCase("segments");
+        if (!segments) {
+            try (ReaderPool.Lease reader = openReader();
+                 Statement statement = reader.connection.createStatement()) {
+                if (SegmentReplayStore.hasSegments(statement)) {
+                    plugin.getLogger().warning("Replays are stored in segment files, keeping segment storage.");
+                    segments = true;
                 }
+            } catch (SQLException e) {
+                plugin.getLogger().log(Level.WARNING, "Could not check for replay segments", e);
             }
-        } catch (SQLException | IOException e) {
-            plugin.getLogger().log(Level.SEVERE, "Could not save replay", e);
+        }
+        return segments ? new SegmentReplayStore(plugin, this, writer) : new SqliteReplayStore();
+    }
+
+    // Moves replay_data out of death_replays into replay_blobs, leaving a dense metadata table.
+    // Blobs are moved in committed batches and emptied behind them, so an interrupted start picks
+    // up where it stopped and the file never holds every blob twice. SQLite cannot drop the column
+    // in place on older versions, so the then small table is rebuilt at the end.
+    private void splitReplayBlobs(Statement statement) throws SQLException {
+        Connection connection = statement.getConnection();
+        int total = 0;
+        try (ResultSet rs = statement.executeQuery("SELECT COUNT(*) FROM death_replays WHERE length(replay_data) > 0")) {
+            if (rs.next()) total = rs.getInt(1);
+        }
+        plugin.getLogger().info("Moving " + total + " replays into the replay_blobs table...");
+
+        int moved = 0;
+        long lastId = 0;
+        long lastLog = System.currentTimeMillis();
+        try (PreparedStatement last = connection.prepareStatement("SELECT MAX(id) FROM (SELECT id FROM death_replays " +
+                     "WHERE id > ? AND length(replay_data) > 0 ORDER BY id LIMIT " + SPLIT_BATCH_SIZE + ")");
+             PreparedStatement copy = connection.prepareStatement("INSERT OR REPLACE INTO replay_blobs (replay_id, data) " +
+                     "SELECT id, replay_data FROM death_replays WHERE id > ? AND id <= ? AND length(replay_data) > 0");
+             PreparedStatement empty = connection.prepareStatement("UPDATE death_replays SET replay_data = X'' WHERE id > ? AND id <= ?")) {
+            while (true) {
+                last.setLong(1, lastId);
+                long batchLastId;
+                try (ResultSet rs = last.executeQuery()) {
+                    if (!rs.next() || rs.getObject(1) == null) break;
+                    batchLastId = rs.getLong(1);
+                }
+                connection.setAutoCommit(false);
+                try {
+                    copy.setLong(1, lastId);
+                    copy.setLong(2, batchLastId);
+                    moved += copy.executeUpdate();
+                    empty.setLong(1, lastId);
+                    empty.setLong(2, batchLastId);
+                    empty.executeUpdate();
+                    connection.commit();
+                } catch (SQLException e) {
+                    connection.rollback();
+                    throw e;
+                } finally {
+                    connection.setAutoCommit(true);
+                }
+                lastId = batchLastId;
+                if (System.currentTimeMillis() - lastLog >= 5000) {
+                    plugin.getLogger().info("Moved " + moved + " of " + total + " replays...");
+                    lastLog = System.currentTimeMillis();
+                }
+            }
+        }
+
+        long sequence = 0;
+        try (ResultSet rs = statement.executeQuery("SELECT seq FROM sqlite_sequence WHERE name = 'death_replays'")) {
+            if (rs.next()) sequence = rs.getLong(1);
+        }
+        connection.setAutoCommit(false);
+        try {
+            statement.execute("DROP TABLE IF EXISTS death_replays_split");
+            statement.execute("CREATE TABLE death_replays_split " + DEATH_REPLAYS_COLUMNS);
+            statement.execute("INSERT INTO death_replays_split (" + META_COLUMNS + ", chunk_x, chunk_z) " +
+                    "SELECT " + META_COLUMNS + ", chunk_x, chunk_z FROM death_replays");
+            statement.execute("DROP TABLE death_replays");
+            statement.execute("ALTER TABLE death_replays_split RENAME TO death_replays");
+            // Keep AUTOINCREMENT from handing out ids of replays deleted before the split.
+            try (PreparedStatement ps = connection.prepareStatement("UPDATE sqlite_sequence SET seq = MAX(seq, ?) WHERE name = 'death_replays'")) {
+                ps.setLong(1, sequence);
+                ps.executeUpdate();
+            }
+            connection.commit();
+        } catch (SQLException e) {
+            connection.rollback();
+            throw e;
         } finally {
-            connectionLock.unlock();
+            connection.setAutoCommit(true);
+        }
+        plugin.getLogger().info("Moved " + moved + " replays into the replay_blobs table.");
+    }
+
+    private void loadReplayGrid() {
+        new BukkitRunnable() {
+            @Override
+            public void run() {
+                List<ReplayGrid.Entry> entries = new ArrayList<>();
+                String sql = "SELECT " + META_COLUMNS + " FROM death_replays";
+                try (ReaderPool.Lease reader = openReader();
+                     Statement stmt = reader.connection.createStatement();
+                     ResultSet rs = stmt.executeQuery(sql)) {
+                    while (rs.next()) {
+                        try {
+                            String typeStr = rs.getString("type");
+                            entries.add(new ReplayGrid.Entry(rs.getInt("id"), UUID.fromString(rs.getString("uuid")), rs.getString("world"),
+                                    rs.getDouble("x"), rs.getDouble("y"), rs.getDouble("z"),
+                                    ReplayType.valueOf(typeStr != null ? typeStr : "DEATH"), rs.getLong("timestamp"), rs.getLong("match_id"), rs.getInt("play_count")));
+                        } catch (IllegalArgumentException e) {
+                            plugin.getLogger().warning("Skipping replay " + rs.getInt("id") + " with invalid metadata: " + e.getMessage());
+                        }
+                    }
+                } catch (SQLException e) {
+                    plugin.getLogger().log(Level.SEVERE, "Could not load replay metadata grid, falling back to database lookups", e);
+                    replayGrid.abandon();
+                    return;
+                }
+                replayGrid.load(entries);
+                plugin.getLogger().info("Indexed " + entries.size() + " replays for proximity lookups.");
+            }
+        }.runTaskAsynchronously(plugin);
+    }
+
+    // Runs a blocking read on the database executor. The future fails with a TimeoutException after
+    // database.async.timeout milliseconds, and with a RejectedExecutionException while too many reads
+    // are already pending.
+    public <T> CompletableFuture<T> supplyAsync(Supplier<T> task) {
+        try {
+            return CompletableFuture.supplyAsync(task, executor).orTimeout(asyncTimeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            CompletableFuture<T> rejected = new CompletableFuture<>();
+            rejected.completeExceptionally(e);
+            return rejected;
         }
-        return -1;
+    }
+
+    // Continues a pipeline on the server thread: thenAcceptAsync(spawn, databaseManager.mainThreadExecutor()).
+    // Runs the task directly when already on it.
+    public Executor mainThreadExecutor() {
+        return mainThreadExecutor;
+    }
+
+    public CompletableFuture<ReplayData> getReplayByIdAsync(int id) {
+        return supplyAsync(() -> getReplayById(id));
+    }
+
+    public CompletableFuture<List<ReplayData>> getRecentReplaysAsync(int limit) {
+        return supplyAsync(() -> getRecentReplays(limit));
+    }
+
+    public CompletableFuture<List<ReplayData>> getNearbyReplayMetaAsync(Location location, double radius, ReplayType type) {
+        Location center = location.clone();
+        return supplyAsync(() -> getNearbyReplayMeta(center, radius, type));
+    }
+
+    public CompletableFuture<List<ReplayData>> getMatchReplaysAsync(long matchId) {
+        return supplyAsync(() -> getMatchReplays(matchId));
+    }
+
+    public CompletableFuture<List<PlacedReplay>> getAllPlacedReplaysAsync() {
+        return supplyAsync(this::getAllPlacedReplays);
+    }
+
+    public CompletableFuture<List<ReplayTrack>> openTracksAsync(ReplayData replay) {
+        return supplyAsync(() -> openTracks(replay));
+    }
+
+    public CompletableFuture<List<ReplayFrame>> getReplayFramesAsync(int id) {
+        return supplyAsync(() -> getReplayFrames(id));
+    }
+
+    // matchId links the replays of one PVP fight; 0 for replays that are not part of a match.
+    public CompletableFuture<Integer> saveReplayAsync(UUID playerUUID, Location deathLocation, List<ReplayFrame> frames, ReplayType type, long timestamp, long matchId) {
+        return saveTracksAsync(playerUUID, deathLocation, Collections.singletonList(ReplayTrack.of(playerUUID, frames)), type, timestamp, matchId);
+    }
+
+    // One row and one blob for every track; the owner is the player the row is listed under.
+    public CompletableFuture<Integer> saveTracksAsync(UUID playerUUID, Location deathLocation, List<ReplayTrack> tracks, ReplayType type, long timestamp, long matchId) {
+        String sql = "INSERT INTO death_replays (uuid, world, x, y, z, timestamp, type, chunk_x, chunk_z, match_id) VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
+        String worldName = deathLocation.getWorld().getName();
+        double x = deathLocation.getX();
+        double y = deathLocation.getY();
+        double z = deathLocation.getZ();
+
+        // Serialized on the writer so new item dictionary rows commit together with the replay.
+        return writer.submit(connection -> {
+            try (PreparedStatement ps = connection.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS)) {
+                ps.setString(1, playerUUID.toString());
+                ps.setString(2, worldName);
+                ps.setDouble(3, x);
+                ps.setDouble(4, y);
+                ps.setDouble(5, z);
+                ps.setLong(6, timestamp);
+                ps.setString(7, type.name());
+                ps.setInt(8, ReplayGrid.chunkCoord(x));
+                ps.setInt(9, ReplayGrid.chunkCoord(z));
+                if (matchId != 0) {
+                    ps.setLong(10, matchId);
+                } else {
+                    ps.setNull(10, Types.INTEGER);
+                }
+
+                ps.executeUpdate();
+
+                int id = -1;
+                try (ResultSet rs = ps.getGeneratedKeys()) {
+                    if (rs.next()) {
+                        id = rs.getInt(1);
+                    }
+                }
+                if (id == -1) return -1;
+
+                store.write(connection, id, serializer.serialize(tracks));
+                return id;
+            }
+        }).thenApply(id -> {
+            if (id > 0) {
+                replayGrid.add(new ReplayGrid.Entry(id, playerUUID, worldName, x, y, z, type, timestamp, matchId, 0));
+            }
+            return id;
+        });
+    }
+
+    public int saveTracks(UUID playerUUID, Location deathLocation, List<ReplayTrack> tracks, ReplayType type, long timestamp) {
+        return await(saveTracksAsync(playerUUID, deathLocation, tracks, type, timestamp, 0), -1, "Could not save replay");
+    }
+
+    public int saveReplay(UUID playerUUID, Location deathLocation, List<ReplayFrame> frames, ReplayType type, long timestamp, long matchId) {
+        return await(saveReplayAsync(playerUUID, deathLocation, frames, type, timestamp, matchId), -1, "Could not save replay");
+    }
+
+    public int saveReplay(UUID playerUUID, Location deathLocation, List<ReplayFrame> frames, ReplayType type, long timestamp) {
+        return saveReplay(playerUUID, deathLocation, frames, type, timestamp, 0);
     }
 
     public int saveReplay(UUID playerUUID, Location deathLocation, List<ReplayFrame> frames, ReplayType type) {
         return saveReplay(playerUUID, deathLocation, frames, type, System.currentTimeMillis());
     }
 
+    // Counted in memory and written with the next play count flush.
     public void incrementPlayCount(int id) {
-        String sql = "UPDATE death_replays SET play_count = play_count + 1 WHERE id = ?";
-        connectionLock.lock();
-        try (PreparedStatement ps = getConnection().prepareStatement(sql)) {
-            ps.setInt(1, id);
-            ps.executeUpdate();
-        } catch (SQLException e) {
-            plugin.getLogger().log(Level.SEVERE, "Could not increment play count", e);
-        } finally {
-            connectionLock.unlock();
-        }
+        playCounts.increment(id);
+    }
+
+    // The persisted play count plus plays not yet written.
+    public int getPlayCount(ReplayData replay) {
+        return replay.playCount + playCounts.pending(replay.id);
     }
 
     public List<ReplayData> getReplaysByTimestamp(long timestamp) {
         List<ReplayData> replays = new ArrayList<>();
-        String sql = "SELECT * FROM death_replays WHERE timestamp = ?";
+        String sql = "SELECT " + META_COLUMNS + " FROM death_replays WHERE timestamp = ?";
         
-        try (PreparedStatement ps = getConnection().prepareStatement(sql)) {
+        try (ReaderPool.Lease reader = openReader();
+             PreparedStatement ps = reader.connection.prepareStatement(sql)) {
             ps.setLong(1, timestamp);
             
             try (ResultSet rs = ps.executeQuery()) {
                 while (rs.next()) {
-                    int id = rs.getInt("id");
-                    UUID uuid = UUID.fromString(rs.getString("uuid"));
-                    String worldName = rs.getString("world");
-                    World world = Bukkit.getWorld(worldName);
-                    if (world == null) continue;
-                    
-                    Location loc = new Location(world, rs.getDouble("x"), rs.getDouble("y"), rs.getDouble("z"));
-                    byte[] data = rs.getBytes("replay_data");
-                    String typeStr = rs.getString("type");
-                    ReplayType rType = ReplayType.valueOf(typeStr != null ? typeStr : "DEATH");
-                    int playCount = rs.getInt("play_count");
-                    
-                    replays.add(new ReplayData(id, uuid, loc, deserializeFrames(data, world), rType, timestamp, playCount));
+                    ReplayData replay = readReplayMeta(rs, null);
+                    if (replay != null) replays.add(replay);
                 }
             }
-        } catch (SQLException | IOException e) {
+        } catch (SQLException e) {
             plugin.getLogger().log(Level.SEVERE, "Could not load replays by timestamp", e);
         }
         return replays;
     }
 
-    public List<ReplayData> getNearbyReplayMeta(Location location, double radius, ReplayType type) {
-        List<ReplayData> replays = new ArrayList<>();
-        String sql;
-        if (type != null) {
-            sql = "SELECT id, uuid, world, x, y, z, type, timestamp, play_count FROM death_replays WHERE world = ? AND x BETWEEN ? AND ? AND z BETWEEN ? AND ? AND y BETWEEN ? AND ? AND type = ?";
-        } else {
-            sql = "SELECT id, uuid, world, x, y, z, type, timestamp, play_count FROM death_replays WHERE world = ? AND x BETWEEN ? AND ? AND z BETWEEN ? AND ? AND y BETWEEN ? AND ?";
+    // Replays recorded in the same PVP fight, metadata only.
+    public List<ReplayData> getMatchReplays(long matchId) {
+        if (matchId == 0) return new ArrayList<>();
+        if (replayGrid.isLoaded()) {
+            return replayGrid.match(matchId);
         }
-        
-        double xMin = location.getX() - radius;
-        double xMax = location.getX() + radius;
-        double zMin = location.getZ() - radius;
-        double zMax = location.getZ() + radius;
-        double yMin = location.getY() - radius;
-        double yMax = location.getY() + radius;
-
-        try (PreparedStatement ps = getConnection().prepareStatement(sql)) {
-            ps.setString(1, location.getWorld().getName());
-            ps.setDouble(2, xMin);
-            ps.setDouble(3, xMax);
-            ps.setDouble(4, zMin);
-            ps.setDouble(5, zMax);
-            ps.setDouble(6, yMin);
-            ps.setDouble(7, yMax);
-            
-            if (type != null) {
-                ps.setString(8, type.name());
-            }
 
+        List<ReplayData> replays = new ArrayList<>();
+        String sql = "SELECT " + META_COLUMNS + " FROM death_replays WHERE match_id = ?";
+        try (ReaderPool.Lease reader = openReader();
+             PreparedStatement ps = reader.connection.prepareStatement(sql)) {
+            ps.setLong(1, matchId);
             try (ResultSet rs = ps.executeQuery()) {
                 while (rs.next()) {
-                    int id = rs.getInt("id");
-                    UUID uuid = UUID.fromString(rs.getString("uuid"));
-                    double y = rs.getDouble("y");
-                    Location loc = new Location(location.getWorld(), rs.getDouble("x"), y, rs.getDouble("z"));
-                    
-                    String typeStr = rs.getString("type");
-                    ReplayType rType = ReplayType.valueOf(typeStr != null ? typeStr : "DEATH");
-                    int playCount = rs.getInt("play_count");
-                    
-                    long timestamp = rs.getLong("timestamp");
-                    replays.add(new ReplayData(id, uuid, loc, null, rType, timestamp, playCount));
+                    ReplayData replay = readReplayMeta(rs, null);
+                    if (replay != null) replays.add(replay);
                 }
             }
         } catch (SQLException e) {
-            plugin.getLogger().log(Level.SEVERE, "Could not load replay metadata", e);
+            plugin.getLogger().log(Level.SEVERE, "Could not load match replays", e);
         }
         return replays;
     }
 
-    public List<ReplayFrame> getReplayFrames(int id) {
-        String sql = "SELECT replay_data, world FROM death_replays WHERE id = ?";
-        try (PreparedStatement ps = getConnection().prepareStatement(sql)) {
-            ps.setInt(1, id);
-            try (ResultSet rs = ps.executeQuery()) {
-                if (rs.next()) {
-                    byte[] data = rs.getBytes("replay_data");
-                    String worldName = rs.getString("world");
-                    World world = Bukkit.getWorld(worldName);
-                    if (world != null) {
-                        return deserializeFrames(data, world);
-                    }
-                }
-            }
-        } catch (SQLException | IOException e) {
-            plugin.getLogger().log(Level.SEVERE, "Could not load replay frames", e);
-        }
-        return new ArrayList<>();
+    public List<ReplayData> getNearbyReplayMeta(Location location, double radius, ReplayType type) {
+        return getReplayMetaInBox(location.getWorld(), location.getX() - radius, location.getY() - radius, location.getZ() - radius,
+                location.getX() + radius, location.getY() + radius, location.getZ() + radius, type);
     }
 
-    public List<ReplayData> getNearbyReplays(Location location, double radius, ReplayType type) {
+    // Every replay inside the box, bounds included. Lets several nearby lookups share one probe.
+    public List<ReplayData> getReplayMetaInBox(World world, double xMin, double yMin, double zMin, double xMax, double yMax, double zMax, ReplayType type) {
+        if (replayGrid.isLoaded()) {
+            return replayGrid.query(world, xMin, yMin, zMin, xMax, yMax, zMax, type);
+        }
+
         List<ReplayData> replays = new ArrayList<>();
-        String sql;
+        String sql = "SELECT " + META_COLUMNS + " FROM death_replays WHERE world = ? AND chunk_x BETWEEN ? AND ? AND chunk_z BETWEEN ? AND ? AND x BETWEEN ? AND ? AND z BETWEEN ? AND ? AND y BETWEEN ? AND ?";
         if (type != null) {
-            sql = "SELECT * FROM death_replays WHERE world = ? AND x BETWEEN ? AND ? AND z BETWEEN ? AND ? AND y BETWEEN ? AND ? AND type = ?";
-        } else {
-            sql = "SELECT * FROM death_replays WHERE world = ? AND x BETWEEN ? AND ? AND z BETWEEN ? AND ? AND y BETWEEN ? AND ?";
+            sql += " AND type = ?";
         }
-        
-        double xMin = location.getX() - radius;
-        double xMax = location.getX() + radius;
-        double zMin = location.getZ() - radius;
-        double zMax = location.getZ() + radius;
-        double yMin = location.getY() - radius;
-        double yMax = location.getY() + radius;
-
-        try (PreparedStatement ps = getConnection().prepareStatement(sql)) {
-            ps.setString(1, location.getWorld().getName());
-            ps.setDouble(2, xMin);
-            ps.setDouble(3, xMax);
-            ps.setDouble(4, zMin);
-            ps.setDouble(5, zMax);
-            ps.setDouble(6, yMin);
-            ps.setDouble(7, yMax);
+
+        try (ReaderPool.Lease reader = openReader();
+             PreparedStatement ps = reader.connection.prepareStatement(sql)) {
+            ps.setString(1, world.getName());
+            // The chunk range narrows the search through idx_death_replays_chunk_time; the exact box
+            // below then filters the few chunks on the edge of the radius.
+            ps.setInt(2, ReplayGrid.chunkCoord(xMin));
+            ps.setInt(3, ReplayGrid.chunkCoord(xMax));
+            ps.setInt(4, ReplayGrid.chunkCoord(zMin));
+            ps.setInt(5, ReplayGrid.chunkCoord(zMax));
+            ps.setDouble(6, xMin);
+            ps.setDouble(7, xMax);
+            ps.setDouble(8, zMin);
+            ps.setDouble(9, zMax);
+            ps.setDouble(10, yMin);
+            ps.setDouble(11, yMax);
             
             if (type != null) {
-                ps.setString(8, type.name());
+                ps.setString(12, type.name());
             }
 
             try (ResultSet rs = ps.executeQuery()) {
                 while (rs.next()) {
-                    int id = rs.getInt("id");
-                    UUID uuid = UUID.fromString(rs.getString("uuid"));
-                    double y = rs.getDouble("y");
-                    Location loc = new Location(location.getWorld(), rs.getDouble("x"), y, rs.getDouble("z"));
-                    byte[] data = rs.getBytes("replay_data");
-                    String typeStr = rs.getString("type");
-                    ReplayType rType = ReplayType.valueOf(typeStr != null ? typeStr : "DEATH");
-                    int playCount = rs.getInt("play_count");
-                    
-                    long timestamp = rs.getLong("timestamp");
-                    replays.add(new ReplayData(id, uuid, loc, deserializeFrames(data, loc.getWorld()), rType, timestamp, playCount));
+                    replays.add(readReplayMeta(rs, world));
                 }
             }
-        } catch (SQLException | IOException e) {
-            plugin.getLogger().log(Level.SEVERE, "Could not load replays", e);
+        } catch (SQLException e) {
+            plugin.getLogger().log(Level.SEVERE, "Could not load replay metadata", e);
         }
         return replays;
     }
 
+    public List<ReplayFrame> getReplayFrames(int id) {
+        List<ReplayFrame> frames = new ArrayList<>();
+        FrameCursor cursor = openFrameCursor(id);
+        while (cursor.hasNext()) {
+            frames.add(cursor.next());
+        }
+        return frames;
+    }
+
+    // Metadata only; frames are streamed from the replay store when the replay is played.
+    public List<ReplayData> getNearbyReplays(Location location, double radius, ReplayType type) {
+        return getNearbyReplayMeta(location, radius, type);
+    }
+
+    public ReplayCache getReplayCache() {
+        return replayCache;
+    }
+
+    public ReplayMigrator getMigrator() {
+        return migrator;
+    }
+
+    public ReplayRetention getRetention() {
+        return retention;
+    }
+
+    // Drops in-memory state for replays deleted outside deleteReplay().
+    void forgetReplays(List<Integer> ids) {
+        for (int id : ids) {
+            replayGrid.remove(id);
+            replayCache.invalidate(id);
+            playCounts.forget(id);
+        }
+    }
+
     public void close() {
+        executor.shutdown();
+        migrator.stop();
+        retention.stop();
+        playCounts.shutdown();
+        writer.shutdown();
+        store.close();
+        readers.close();
+        connectionLock.lock();
         try {
             if (connection != null && !connection.isClosed()) {
                 connection.close();
             }
         } catch (SQLException e) {
             e.printStackTrace();
+        } finally {
+            connectionLock.unlock();
         }
     }
 
-    public int savePlacedReplay(int replayId, Location location) {
+    public CompletableFuture<Integer> savePlacedReplayAsync(int replayId, Location location) {
         String sql = "INSERT INTO placed_replays (replay_id, world, x, y, z, yaw, pitch) VALUES (?, ?, ?, ?, ?, ?, ?)";
-        connectionLock.lock();
-        try (PreparedStatement ps = getConnection().prepareStatement(sql, Statement.RETURN_GENERATED_KEYS)) {
-            ps.setInt(1, replayId);
-            ps.setString(2, location.getWorld().getName());
-            ps.setDouble(3, location.getX());
-            ps.setDouble(4, location.getY());
-            ps.setDouble(5, location.getZ());
-            ps.setFloat(6, location.getYaw());
-            ps.setFloat(7, location.getPitch());
-            ps.executeUpdate();
-            
-            try (ResultSet rs = ps.getGeneratedKeys()) {
-                if (rs.next()) {
-                    return rs.getInt(1);
+        Location loc = location.clone();
+        return writer.submit(connection -> {
+            try (PreparedStatement ps = connection.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS)) {
+                ps.setInt(1, replayId);
+                ps.setString(2, loc.getWorld().getName());
+                ps.setDouble(3, loc.getX());
+                ps.setDouble(4, loc.getY());
+                ps.setDouble(5, loc.getZ());
+                ps.setFloat(6, loc.getYaw());
+                ps.setFloat(7, loc.getPitch());
+                ps.executeUpdate();
+
+                try (ResultSet rs = ps.getGeneratedKeys()) {
+                    if (rs.next()) {
+                        return rs.getInt(1);
+                    }
                 }
             }
-        } catch (SQLException e) {
-            plugin.getLogger().log(Level.SEVERE, "Could not save placed replay", e);
-        } finally {
-            connectionLock.unlock();
-        }
-        return -1;
+            return -1;
+        });
+    }
+
+    public int savePlacedReplay(int replayId, Location location) {
+        return await(savePlacedReplayAsync(replayId, location), -1, "Could not save placed replay");
     }
 
     public void deletePlacedReplay(int id) {
         String sql = "DELETE FROM placed_replays WHERE id = ?";
-        connectionLock.lock();
-        try (PreparedStatement ps = getConnection().prepareStatement(sql)) {
-            ps.setInt(1, id);
-            ps.executeUpdate();
-        } catch (SQLException e) {
+        writer.submit(connection -> {
+            try (PreparedStatement ps = connection.prepareStatement(sql)) {
+                ps.setInt(1, id);
+                ps.executeUpdate();
+            }
+            return null;
+        }).exceptionally(e -> {
             plugin.getLogger().log(Level.SEVERE, "Could not delete placed replay", e);
-        } finally {
-            connectionLock.unlock();
-        }
+            return null;
+        });
     }
 
     public List<PlacedReplay> getAllPlacedReplays() {
         List<PlacedReplay> replays = new ArrayList<>();
         String sql = "SELECT * FROM placed_replays";
-        try (Statement stmt = getConnection().createStatement();
+        try (ReaderPool.Lease reader = openReader();
+             Statement stmt = reader.connection.createStatement();
              ResultSet rs = stmt.executeQuery(sql)) {
             while (rs.next()) {
                 int id = rs.getInt("id");
@@ -364,27 +667,16 @@ public class DatabaseManager {
     }
 
     public ReplayData getReplayById(int id) {
-        String sql = "SELECT * FROM death_replays WHERE id = ?";
-        try (PreparedStatement ps = getConnection().prepareStatement(sql)) {
+        String sql = "SELECT " + META_COLUMNS + " FROM death_replays WHERE id = ?";
+        try (ReaderPool.Lease reader = openReader();
+             PreparedStatement ps = reader.connection.prepareStatement(sql)) {
             ps.setInt(1, id);
             try (ResultSet rs = ps.executeQuery()) {
                 if (rs.next()) {
-                    UUID uuid = UUID.fromString(rs.getString("uuid"));
-                    String worldName = rs.getString("world");
-                    World world = Bukkit.getWorld(worldName);
-                    if (world == null) return null;
-                    
-                    Location loc = new Location(world, rs.getDouble("x"), rs.getDouble("y"), rs.getDouble("z"));
-                    byte[] data = rs.getBytes("replay_data");
-                    String typeStr = rs.getString("type");
-                    ReplayType rType = ReplayType.valueOf(typeStr != null ? typeStr : "DEATH");
-                    int playCount = rs.getInt("play_count");
-                    
-                    long timestamp = rs.getLong("timestamp");
-                    return new ReplayData(id, uuid, loc, deserializeFrames(data, world), rType, timestamp, playCount);
+                    return readReplayMeta(rs, null);
                 }
             }
-        } catch (SQLException | IOException e) {
+        } catch (SQLException e) {
             plugin.getLogger().log(Level.SEVERE, "Could not load replay by id", e);
         }
         return null;
@@ -392,188 +684,169 @@ public class DatabaseManager {
 
     public List<ReplayData> getRecentReplays(int limit) {
         List<ReplayData> replays = new ArrayList<>();
-        String sql = "SELECT * FROM death_replays ORDER BY timestamp DESC LIMIT ?";
-        try (PreparedStatement ps = getConnection().prepareStatement(sql)) {
+        String sql = "SELECT " + META_COLUMNS + " FROM death_replays ORDER BY timestamp DESC LIMIT ?";
+        try (ReaderPool.Lease reader = openReader();
+             PreparedStatement ps = reader.connection.prepareStatement(sql)) {
             ps.setInt(1, limit);
             try (ResultSet rs = ps.executeQuery()) {
                 while (rs.next()) {
-                    int id = rs.getInt("id");
-                    UUID uuid = UUID.fromString(rs.getString("uuid"));
-                    String worldName = rs.getString("world");
-                    World world = Bukkit.getWorld(worldName);
-                    if (world == null) continue;
-                    
-                    Location loc = new Location(world, rs.getDouble("x"), rs.getDouble("y"), rs.getDouble("z"));
-                    byte[] data = rs.getBytes("replay_data");
-                    String typeStr = rs.getString("type");
-                    ReplayType rType = ReplayType.valueOf(typeStr != null ? typeStr : "DEATH");
-                    int playCount = rs.getInt("play_count");
-                    
-                    long timestamp = rs.getLong("timestamp");
-                    replays.add(new ReplayData(id, uuid, loc, deserializeFrames(data, world), rType, timestamp, playCount));
+                    ReplayData replay = readReplayMeta(rs, null);
+                    if (replay != null) replays.add(replay);
                 }
             }
-        } catch (SQLException | IOException e) {
+        } catch (SQLException e) {
             plugin.getLogger().log(Level.SEVERE, "Could not load recent replays", e);
         }
         return replays;
     }
 
-    private static final int MAGIC_NUMBER = 0x53524550;
-    private static final int DATA_VERSION = 2;
-
     public boolean deleteReplay(int id) {
         ReplayData replay = getReplayById(id);
         if (replay == null) return false;
+        return await(deleteReplay(replay), false, "Could not delete replay");
+    }
+
+    public CompletableFuture<Boolean> deleteReplayAsync(int id) {
+        return getReplayByIdAsync(id).thenCompose(replay ->
+                replay != null ? deleteReplay(replay) : CompletableFuture.completedFuture(false));
+    }
+
+    private CompletableFuture<Boolean> deleteReplay(ReplayData replay) {
+        int id = replay.id;
 
         String sql = "DELETE FROM death_replays WHERE id = ?";
         
-        if (replay.type == ReplayType.PVP) {
-            sql = "DELETE FROM death_replays WHERE timestamp = ?";
+        boolean wholeMatch = replay.matchId != 0;
+        if (wholeMatch) {
+            sql = "DELETE FROM death_replays WHERE match_id = ?";
         }
+        List<ReplayData> members = wholeMatch ? getMatchReplays(replay.matchId) : Collections.emptyList();
 
-        connectionLock.lock();
-        try (PreparedStatement ps = getConnection().prepareStatement(sql)) {
-            if (replay.type == ReplayType.PVP) {
-                ps.setLong(1, replay.timestamp);
-            } else {
-                ps.setInt(1, id);
+        String deleteSql = sql;
+        return writer.submit(connection -> {
+            store.delete(connection, id);
+            for (ReplayData member : members) {
+                if (member.id != id) store.delete(connection, member.id);
             }
-            
-            int rows = ps.executeUpdate();
-            return rows > 0;
-        } catch (SQLException e) {
-            plugin.getLogger().log(Level.SEVERE, "Could not delete replay", e);
-            return false;
-        } finally {
-            connectionLock.unlock();
-        }
-    }
-
-    private byte[] serializeFrames(List<ReplayFrame> frames) throws IOException {
-        try (ByteArrayOutputStream baos = new ByteArrayOutputStream();
-             DataOutputStream dos = new DataOutputStream(baos)) {
-            
-            dos.writeInt(MAGIC_NUMBER);
-            dos.writeInt(DATA_VERSION);
-            dos.writeInt(frames.size());
-            for (ReplayFrame frame : frames) {
-                dos.writeDouble(frame.getX());
-                dos.writeDouble(frame.getY());
-                dos.writeDouble(frame.getZ());
-                dos.writeFloat(frame.getYaw());
-                dos.writeFloat(frame.getPitch());
-                dos.writeByte(frame.getAction().ordinal());
-                dos.writeBoolean(frame.isSneaking());
-
-                byte[] itemBytes = serializeItem(frame.getItemInHand());
-                dos.writeInt(itemBytes.length);
-                if (itemBytes.length > 0) {
-                    dos.write(itemBytes);
-                }
-
-                ItemStack[] armor = frame.getArmor();
-                if (armor == null) {
-                    dos.writeInt(0);
+            try (PreparedStatement ps = connection.prepareStatement(deleteSql)) {
+                if (wholeMatch) {
+                    ps.setLong(1, replay.matchId);
                 } else {
-                    dos.writeInt(armor.length);
-                    for (ItemStack armorPiece : armor) {
-                        byte[] armorBytes = serializeItem(armorPiece);
-                        dos.writeInt(armorBytes.length);
-                        if (armorBytes.length > 0) {
-                            dos.write(armorBytes);
-                        }
-                    }
+                    ps.setInt(1, id);
                 }
+
+                int rows = ps.executeUpdate();
+                return rows > 0;
+            }
+        }).thenApply(deleted -> {
+            if (wholeMatch) {
+                replayGrid.removeMatch(replay.matchId);
             }
-            return baos.toByteArray();
+            replayGrid.remove(id);
+            replayCache.invalidate(id);
+            playCounts.forget(id);
+            for (ReplayData member : members) {
+                replayCache.invalidate(member.id);
+                playCounts.forget(member.id);
+            }
+            return deleted;
+        });
+    }
+
+    public FrameCursor openFrameCursor(ReplayData replay) {
+        FrameCursor cursor = replay.openFrames();
+        return cursor != null ? cursor : openFrameCursor(replay.id);
+    }
+
+    // The owner's track.
+    public FrameCursor openFrameCursor(int id) {
+        List<ReplayTrack> tracks = openTracks(id);
+        return tracks.isEmpty() ? FrameCursor.of(new ArrayList<>()) : tracks.get(0).frames;
+    }
+
+    // Every track recorded in the replay, the owner's first.
+    public List<ReplayTrack> openTracks(ReplayData replay) {
+        FrameCursor cursor = replay.openFrames();
+        if (cursor != null) {
+            List<ReplayTrack> tracks = new ArrayList<>();
+            tracks.add(new ReplayTrack(replay.uuid, cursor));
+            return tracks;
         }
+        return openTracks(replay.id);
     }
 
-    private List<ReplayFrame> deserializeFrames(byte[] data, org.bukkit.World world) throws IOException {
-        List<ReplayFrame> frames = new ArrayList<>();
-        try (ByteArrayInputStream bais = new ByteArrayInputStream(data);
-             DataInputStream dis = new DataInputStream(bais)) {
-            
-            if (dis.available() < 4) return frames;
-            int magic = dis.readInt();
-            if (magic != MAGIC_NUMBER) {
-                plugin.getLogger().warning("Invalid replay data format (Magic Number mismatch). Skipping.");
-                return frames;
-            }
+    // True if the in-memory replay index is loaded and still holds the replay. Never touches the
+    // database; false means "unknown" as well as "deleted".
+    public boolean isReplayIndexed(int id) {
+        return replayGrid.contains(id);
+    }
 
-            int version = dis.readInt();
-            if (version != DATA_VERSION) {
-                plugin.getLogger().warning("Skipping replay with incompatible data version: " + version + " (Expected: " + DATA_VERSION + ")");
-                return frames;
+    // Decodes every frame of a replay ahead of playback so it ends up in the replay cache. Returns
+    // the number of tracks, or 0 if the replay has no frames.
+    public int preloadTracks(int id) {
+        List<ReplayTrack> tracks = openTracks(id);
+        if (tracks.isEmpty() || !tracks.get(0).frames.hasNext()) return 0;
+        for (ReplayTrack track : tracks) {
+            while (track.frames.hasNext()) {
+                track.frames.next();
             }
+        }
+        return tracks.size();
+    }
 
-            int size = dis.readInt();
-            for (int i = 0; i < size; i++) {
-                try {
-                    double x = dis.readDouble();
-                    double y = dis.readDouble();
-                    double z = dis.readDouble();
-                    float yaw = dis.readFloat();
-                    float pitch = dis.readFloat();
-                    int actionOrd = dis.readByte();
-                    boolean sneaking = dis.readBoolean();
-
-                    int itemLen = dis.readInt();
-                    ItemStack item = null;
-                    if (itemLen > 0) {
-                        byte[] itemBytes = new byte[itemLen];
-                        dis.readFully(itemBytes);
-                        item = deserializeItem(itemBytes);
-                    }
+    // Tracks of a replay that is already decoded in the replay cache, or null. Never touches the
+    // database, so it is safe on the main thread.
+    public List<ReplayTrack> getCachedTracks(int id) {
+        return replayCache.getIfPresent(id);
+    }
 
-                    int armorCount = dis.readInt();
-                    ItemStack[] armor = new ItemStack[armorCount];
-                    for (int j = 0; j < armorCount; j++) {
-                        int armorLen = dis.readInt();
-                        if (armorLen > 0) {
-                            byte[] armorBytes = new byte[armorLen];
-                            dis.readFully(armorBytes);
-                            armor[j] = deserializeItem(armorBytes);
-                        } else {
-                            armor[j] = null;
-                        }
+    // Served from the replay cache when possible. On a miss frames are still decoded lazily, and
+    // the replay is cached once it has been played to the end, so the next play of it costs no
+    // I/O or decoding.
+    public List<ReplayTrack> openTracks(int id) {
+        List<ReplayTrack> cached = replayCache.get(id);
+        if (cached != null) return cached;
+        long generation = replayCache.generation();
+
+        String sql = "SELECT world, uuid FROM death_replays WHERE id = ?";
+        try (ReaderPool.Lease reader = openReader();
+             PreparedStatement ps = reader.connection.prepareStatement(sql)) {
+            ps.setInt(1, id);
+            try (ResultSet rs = ps.executeQuery()) {
+                if (rs.next()) {
+                    World world = Bukkit.getWorld(rs.getString("world"));
+                    ByteBuffer data = world != null ? store.read(reader.connection, id) : null;
+                    if (data != null) {
+                        List<ReplayTrack> tracks = serializer.openTracks(reader.connection, data, world, UUID.fromString(rs.getString("uuid")));
+                        return replayCache.fill(id, generation, tracks);
                     }
-
-                    Location loc = new Location(world, x, y, z, yaw, pitch);
-                    PlayerAction action = PlayerAction.values()[Math.min(Math.max(actionOrd, 0), PlayerAction.values().length - 1)];
-                    frames.add(new ReplayFrame(loc, action, sneaking, item, armor));
-                } catch (EOFException e) {
-                    plugin.getLogger().warning("Unexpected end of file while reading replay frames. Replay might be truncated.");
-                    break;
-                } catch (Exception e) {
-                    plugin.getLogger().warning("Error reading a frame: " + e.getMessage());
-                    break;
                 }
             }
+        } catch (SQLException e) {
+            plugin.getLogger().log(Level.SEVERE, "Could not open replay frames", e);
         }
-        return frames;
+        return new ArrayList<>();
     }
 
-    private byte[] serializeItem(ItemStack item) {
-        if (item == null) return new byte[0];
-        try (ByteArrayOutputStream os = new ByteArrayOutputStream();
-             BukkitObjectOutputStream bos = new BukkitObjectOutputStream(os)) {
-            bos.writeObject(item);
-            return os.toByteArray();
-        } catch (IOException e) {
-            plugin.getLogger().log(Level.WARNING, "Failed to serialize item: " + item.getType(), e);
-            return new byte[0];
+    // Reads a row selected with META_COLUMNS. Returns null if its world is not loaded.
+    private ReplayData readReplayMeta(ResultSet rs, World world) throws SQLException {
+        if (world == null) {
+            world = Bukkit.getWorld(rs.getString("world"));
+            if (world == null) return null;
         }
+        Location loc = new Location(world, rs.getDouble("x"), rs.getDouble("y"), rs.getDouble("z"));
+        String typeStr = rs.getString("type");
+        ReplayType rType = ReplayType.valueOf(typeStr != null ? typeStr : "DEATH");
+        return new ReplayData(rs.getInt("id"), UUID.fromString(rs.getString("uuid")), loc, null, rType,
+                rs.getLong("timestamp"), rs.getInt("play_count"), rs.getLong("match_id"));
     }
 
-    private ItemStack deserializeItem(byte[] data) {
-        try (ByteArrayInputStream is = new ByteArrayInputStream(data);
-             BukkitObjectInputStream bis = new BukkitObjectInputStream(is)) {
-            return (ItemStack) bis.readObject();
-        } catch (Exception e) {
-            plugin.getLogger().log(Level.WARNING, "Failed to deserialize item", e);
-            return null;
+    private <T> T await(CompletableFuture<T> future, T fallback, String message) {
+        try {
+            return future.join();
+        } catch (CompletionException | CancellationException e) {
+            plugin.getLogger().log(Level.SEVERE, message, e.getCause() != null ? e.getCause() : e);
+            return fallback;
         }
     }
 
@@ -585,6 +858,8 @@ public class DatabaseManager {
         public final ReplayType type;
         public final long timestamp;
         public final int playCount;
+        public final long matchId;
+        public final Supplier<FrameCursor> frameSource;
 
         public ReplayData(int id, UUID uuid, Location location, List<ReplayFrame> frames, ReplayType type) {
             this(id, uuid, location, frames, type, 0, 0);
@@ -595,6 +870,18 @@ public class DatabaseManager {
         }
 
         public ReplayData(int id, UUID uuid, Location location, List<ReplayFrame> frames, ReplayType type, long timestamp, int playCount) {
+            this(id, uuid, location, frames, type, timestamp, playCount, null);
+        }
+
+        public ReplayData(int id, UUID uuid, Location location, List<ReplayFrame> frames, ReplayType type, long timestamp, int playCount, long matchId) {
+            this(id, uuid, location, frames, type, timestamp, playCount, matchId, null);
+        }
+
+        public ReplayData(int id, UUID uuid, Location location, List<ReplayFrame> frames, ReplayType type, long timestamp, int playCount, Supplier<FrameCursor> frameSource) {
+            this(id, uuid, location, frames, type, timestamp, playCount, 0, frameSource);
+        }
+
+        public ReplayData(int id, UUID uuid, Location location, List<ReplayFrame> frames, ReplayType type, long timestamp, int playCount, long matchId, Supplier<FrameCursor> frameSource) {
             this.id = id;
             this.uuid = uuid;
             this.location = location;
@@ -602,6 +889,18 @@ public class DatabaseManager {
             this.type = type;
             this.timestamp = timestamp;
             this.playCount = playCount;
+            this.matchId = matchId;
+            this.frameSource = frameSource;
+        }
+
+        public boolean hasFrames() {
+            return frames != null || frameSource != null;
+        }
+
+        // Returns a fresh cursor over the frames carried by this replay, or null if they were not loaded.
+        public FrameCursor openFrames() {
+            if (frames != null) return FrameCursor.of(frames);
+            return frameSource != null ? frameSource.get() : null;
         }
     }
 
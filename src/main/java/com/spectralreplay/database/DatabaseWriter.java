@@ -0,0 +1,207 @@
+package com.spectralreplay.database;
+
+import com.spectralreplay.SpectralReplay;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Savepoint;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Level;
+
+// Single writer for the database. Writes are queued from any thread and a dedicated thread
+// groups them into one transaction per batch, so a burst of deaths costs one commit instead of
+// one per row. Each write runs under its own savepoint; a failing write is rolled back alone and
+// only its future fails. Futures complete after the batch has committed.
+class DatabaseWriter {
+
+    interface WriteOperation<T> {
+        T apply(Connection connection) throws Exception;
+    }
+
+    private final SpectralReplay plugin;
+    private final DatabaseManager databaseManager;
+    private final ItemDictionary itemDictionary;
+    private final ReentrantLock connectionLock;
+    private final BlockingQueue<PendingWrite<?>> queue;
+    private final int batchSize;
+    private final long batchIntervalNanos;
+    private final Thread thread;
+    private volatile boolean running = true;
+    // Set once the store is open; the store itself needs the writer, so it cannot be passed in.
+    private volatile ReplayStore store;
+
+    DatabaseWriter(SpectralReplay plugin, DatabaseManager databaseManager, ItemDictionary itemDictionary, ReentrantLock connectionLock) {
+        this.plugin = plugin;
+        this.databaseManager = databaseManager;
+        this.itemDictionary = itemDictionary;
+        this.connectionLock = connectionLock;
+        this.queue = new ArrayBlockingQueue<>(Math.max(16, plugin.getConfig().getInt("database.writer.queue-size", 1024)));
+        this.batchSize = Math.max(1, plugin.getConfig().getInt("database.writer.batch-size", 64));
+        this.batchIntervalNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(0L, plugin.getConfig().getLong("database.writer.batch-interval", 50L)));
+        this.thread = new Thread(this::run, "SpectralReplay-DB-Writer");
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    void setStore(ReplayStore store) {
+        this.store = store;
+    }
+
+    // Blocks the caller while the queue is full, which throttles producers to the commit rate.
+    <T> CompletableFuture<T> submit(WriteOperation<T> operation) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        if (!running) {
+            future.completeExceptionally(new IllegalStateException("Database writer is shut down"));
+            return future;
+        }
+        try {
+            queue.put(new PendingWrite<>(operation, future));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            future.completeExceptionally(e);
+        }
+        return future;
+    }
+
+    // Runs on the calling thread outside any transaction, for statements such as VACUUM that cannot
+    // run inside one. Batches wait until it returns.
+    <T> T runExclusive(WriteOperation<T> operation) throws Exception {
+        connectionLock.lock();
+        try {
+            return operation.apply(databaseManager.getConnection());
+        } finally {
+            connectionLock.unlock();
+        }
+    }
+
+    // Stops accepting writes, commits everything already queued and waits for the thread to exit.
+    void shutdown() {
+        running = false;
+        try {
+            thread.join(TimeUnit.SECONDS.toMillis(10));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        List<PendingWrite<?>> dropped = new ArrayList<>();
+        queue.drainTo(dropped);
+        for (PendingWrite<?> write : dropped) {
+            write.future.completeExceptionally(new IllegalStateException("Database writer is shut down"));
+        }
+        if (!dropped.isEmpty()) {
+            plugin.getLogger().warning("Dropped " + dropped.size() + " pending database writes on shutdown.");
+        }
+    }
+
+    private void run() {
+        List<PendingWrite<?>> batch = new ArrayList<>(batchSize);
+        while (running || !queue.isEmpty()) {
+            try {
+                PendingWrite<?> first = queue.poll(250, TimeUnit.MILLISECONDS);
+                if (first == null) continue;
+                batch.add(first);
+
+                // Linger for the batch interval so writes arriving together share a commit.
+                long deadline = System.nanoTime() + batchIntervalNanos;
+                while (batch.size() < batchSize) {
+                    long wait = deadline - System.nanoTime();
+                    if (!running || wait <= 0) {
+                        queue.drainTo(batch, batchSize - batch.size());
+                        break;
+                    }
+                    PendingWrite<?> next = queue.poll(wait, TimeUnit.NANOSECONDS);
+                    if (next == null) break;
+                    batch.add(next);
+                }
+
+                commit(batch);
+            } catch (InterruptedException e) {
+                if (!batch.isEmpty()) commit(batch);
+                running = false;
+            } catch (Throwable t) {
+                plugin.getLogger().log(Level.SEVERE, "Unexpected error in database writer", t);
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+
+    private void commit(List<PendingWrite<?>> batch) {
+        Exception batchError = null;
+        connectionLock.lock();
+        try {
+            Connection connection = databaseManager.getConnection();
+            connection.setAutoCommit(false);
+            try {
+                for (PendingWrite<?> write : batch) {
+                    write.execute(connection, itemDictionary);
+                }
+                if (store != null) store.sync();
+                connection.commit();
+            } catch (SQLException e) {
+                batchError = e;
+                try {
+                    connection.rollback();
+                } catch (SQLException rollbackError) {
+                    e.addSuppressed(rollbackError);
+                }
+            } finally {
+                connection.setAutoCommit(true);
+            }
+        } catch (SQLException e) {
+            if (batchError == null) batchError = e;
+        } finally {
+            connectionLock.unlock();
+        }
+
+        if (batchError != null) {
+            // Item rows inserted by the batch may be cached under ids that no longer exist.
+            itemDictionary.clearCache();
+            plugin.getLogger().log(Level.SEVERE, "Could not commit " + batch.size() + " database writes", batchError);
+        }
+        for (PendingWrite<?> write : batch) {
+            write.complete(batchError);
+        }
+    }
+
+    private static class PendingWrite<T> {
+        private final WriteOperation<T> operation;
+        private final CompletableFuture<T> future;
+        private T result;
+        private Exception error;
+
+        PendingWrite(WriteOperation<T> operation, CompletableFuture<T> future) {
+            this.operation = operation;
+            this.future = future;
+        }
+
+        void execute(Connection connection, ItemDictionary itemDictionary) throws SQLException {
+            Savepoint savepoint = connection.setSavepoint();
+            try {
+                result = operation.apply(connection);
+                connection.releaseSavepoint(savepoint);
+            } catch (Exception e) {
+                error = e;
+                connection.rollback(savepoint);
+                // Item rows this write inserted are gone, so later writes in the batch must not
+                // reuse their cached ids.
+                itemDictionary.clearCache();
+            }
+        }
+
+        void complete(Exception batchError) {
+            if (batchError != null) {
+                future.completeExceptionally(batchError);
+            } else if (error != null) {
+                future.completeExceptionally(error);
+            } else {
+                future.complete(result);
+            }
+        }
+    }
+}
@@ -0,0 +1,223 @@
+package com.spectralreplay.database;
+
+import com.spectralreplay.SpectralReplay;
+import com.spectralreplay.model.ItemPool;
+import org.bukkit.inventory.ItemStack;
+import org.bukkit.util.io.BukkitObjectInputStream;
+import org.bukkit.util.io.BukkitObjectOutputStream;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Level;
+
+// Database-wide item dictionary backed by the replay_items table. Items are stored once, keyed
+// by the SHA-1 of their serialized bytes, and replay blobs reference them by row id. The LRU
+// caches mean a given item is serialized and deserialized at most once while it stays hot.
+class ItemDictionary {
+
+    private static final int CACHE_SIZE = 2048;
+
+    private final SpectralReplay plugin;
+    private final DatabaseManager databaseManager;
+    private final Map<Integer, ItemStack> itemsById = lruMap();
+    private final Map<ItemStack, Integer> idsByItem = lruMap();
+    private final Map<ByteBuffer, Integer> idsByHash = lruMap();
+    // Ids handed out while retention is looking for unused items. They may belong to replays its
+    // scan did not see, so they are never collected in that pass.
+    private final Set<Integer> trackedIds = new HashSet<>();
+    private boolean tracking = false;
+
+    ItemDictionary(SpectralReplay plugin, DatabaseManager databaseManager) {
+        this.plugin = plugin;
+        this.databaseManager = databaseManager;
+    }
+
+    static void createTable(Statement statement) throws SQLException {
+        statement.execute("CREATE TABLE IF NOT EXISTS replay_items (" +
+                "id INTEGER PRIMARY KEY AUTOINCREMENT," +
+                "hash BLOB NOT NULL UNIQUE," +
+                "data BLOB NOT NULL" +
+                ")");
+    }
+
+    // Returns the dictionary id of the item, inserting it if needed, or 0 for an empty slot.
+    int idFor(ItemStack item) throws SQLException {
+        int id = resolveId(item);
+        if (id != 0) {
+            synchronized (trackedIds) {
+                if (tracking) trackedIds.add(id);
+            }
+        }
+        return id;
+    }
+
+    void startTracking() {
+        synchronized (trackedIds) {
+            trackedIds.clear();
+            tracking = true;
+        }
+    }
+
+    // Stops tracking and returns every id handed out since startTracking().
+    Set<Integer> stopTracking() {
+        synchronized (trackedIds) {
+            Set<Integer> ids = new HashSet<>(trackedIds);
+            trackedIds.clear();
+            tracking = false;
+            return ids;
+        }
+    }
+
+    private int resolveId(ItemStack item) throws SQLException {
+        ItemStack canonical = ItemPool.intern(item);
+        if (canonical == null) return 0;
+
+        synchronized (idsByItem) {
+            Integer cached = idsByItem.get(canonical);
+            if (cached != null) return cached;
+        }
+
+        byte[] data = serializeItem(canonical);
+        if (data.length == 0) return 0;
+        ByteBuffer hash = ByteBuffer.wrap(hash(data));
+
+        Integer id;
+        synchronized (idsByHash) {
+            id = idsByHash.get(hash);
+        }
+        if (id == null) {
+            id = lookupOrInsert(hash.array(), data);
+            synchronized (idsByHash) {
+                idsByHash.put(hash, id);
+            }
+        }
+
+        synchronized (idsByItem) {
+            idsByItem.put(canonical, id);
+        }
+        synchronized (itemsById) {
+            itemsById.putIfAbsent(id, canonical);
+        }
+        return id;
+    }
+
+    // Reads through the caller's connection: decoding always happens while a reader lease is
+    // already held, and asking the pool for a second one could wait on itself.
+    ItemStack itemFor(Connection connection, int id) throws SQLException {
+        if (id == 0) return null;
+        synchronized (itemsById) {
+            ItemStack cached = itemsById.get(id);
+            if (cached != null) return cached;
+        }
+
+        ItemStack item = null;
+        try (PreparedStatement ps = connection.prepareStatement("SELECT data FROM replay_items WHERE id = ?")) {
+            ps.setInt(1, id);
+            try (ResultSet rs = ps.executeQuery()) {
+                if (rs.next()) {
+                    item = ItemPool.intern(deserializeItem(rs.getBytes("data")));
+                }
+            }
+        }
+        if (item == null) {
+            plugin.getLogger().warning("Replay references missing item dictionary entry: " + id);
+            return null;
+        }
+
+        synchronized (itemsById) {
+            itemsById.put(id, item);
+        }
+        synchronized (idsByItem) {
+            idsByItem.putIfAbsent(item, id);
+        }
+        return item;
+    }
+
+    void clearCache() {
+        synchronized (itemsById) {
+            itemsById.clear();
+        }
+        synchronized (idsByItem) {
+            idsByItem.clear();
+        }
+        synchronized (idsByHash) {
+            idsByHash.clear();
+        }
+    }
+
+    // Runs on the writer connection so it sees rows inserted earlier in the same transaction.
+    private int lookupOrInsert(byte[] hash, byte[] data) throws SQLException {
+        try (PreparedStatement ps = databaseManager.getConnection().prepareStatement("SELECT id FROM replay_items WHERE hash = ?")) {
+            ps.setBytes(1, hash);
+            try (ResultSet rs = ps.executeQuery()) {
+                if (rs.next()) {
+                    return rs.getInt(1);
+                }
+            }
+        }
+
+        try (PreparedStatement ps = databaseManager.getConnection().prepareStatement("INSERT INTO replay_items (hash, data) VALUES (?, ?)", Statement.RETURN_GENERATED_KEYS)) {
+            ps.setBytes(1, hash);
+            ps.setBytes(2, data);
+            ps.executeUpdate();
+            try (ResultSet rs = ps.getGeneratedKeys()) {
+                if (rs.next()) {
+                    return rs.getInt(1);
+                }
+            }
+        }
+        throw new SQLException("Could not insert item dictionary entry");
+    }
+
+    private byte[] serializeItem(ItemStack item) {
+        try (ByteArrayOutputStream os = new ByteArrayOutputStream();
+             BukkitObjectOutputStream bos = new BukkitObjectOutputStream(os)) {
+            bos.writeObject(item);
+            bos.flush();
+            return os.toByteArray();
+        } catch (IOException e) {
+            plugin.getLogger().log(Level.WARNING, "Failed to serialize item: " + item.getType(), e);
+            return new byte[0];
+        }
+    }
+
+    ItemStack deserializeItem(byte[] data) {
+        try (ByteArrayInputStream is = new ByteArrayInputStream(data);
+             BukkitObjectInputStream bis = new BukkitObjectInputStream(is)) {
+            return (ItemStack) bis.readObject();
+        } catch (Exception e) {
+            plugin.getLogger().log(Level.WARNING, "Failed to deserialize item", e);
+            return null;
+        }
+    }
+
+    private static byte[] hash(byte[] data) {
+        try {
+            return MessageDigest.getInstance("SHA-1").digest(data);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-1 not available", e);
+        }
+    }
+
+    private static <K, V> Map<K, V> lruMap() {
+        return new LinkedHashMap<K, V>(256, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<K, V> eldest) {
+                return size() > CACHE_SIZE;
+            }
+        };
+    }
+}
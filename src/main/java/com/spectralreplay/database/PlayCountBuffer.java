@@ -0,0 +1,108 @@
+package com.spectralreplay.database;
+
+import com.spectralreplay.SpectralReplay;
+import org.bukkit.scheduler.BukkitRunnable;
+import org.bukkit.scheduler.BukkitTask;
+
+import java.sql.PreparedStatement;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.logging.Level;
+
+// Play count increments are collected in memory and written as one batched UPDATE per interval
+// instead of one write per playback. Counts stay visible to readers while they are pending and
+// while their flush is in flight, so limits checked against persisted + pending stay exact.
+class PlayCountBuffer {
+
+    private final SpectralReplay plugin;
+    private final DatabaseWriter writer;
+    private final ReplayGrid replayGrid;
+    private final Map<Integer, Integer> pending = new HashMap<>();
+    private Map<Integer, Integer> flushing = new HashMap<>();
+    private CompletableFuture<Void> inFlight = CompletableFuture.completedFuture(null);
+    private BukkitTask task;
+
+    PlayCountBuffer(SpectralReplay plugin, DatabaseWriter writer, ReplayGrid replayGrid) {
+        this.plugin = plugin;
+        this.writer = writer;
+        this.replayGrid = replayGrid;
+    }
+
+    void start() {
+        long interval = Math.max(1L, plugin.getConfig().getLong("database.play-count-flush-interval", 100L));
+        task = new BukkitRunnable() {
+            @Override
+            public void run() {
+                flush();
+            }
+        }.runTaskTimerAsynchronously(plugin, interval, interval);
+    }
+
+    synchronized void increment(int id) {
+        pending.merge(id, 1, Integer::sum);
+    }
+
+    synchronized int pending(int id) {
+        return pending.getOrDefault(id, 0) + flushing.getOrDefault(id, 0);
+    }
+
+    synchronized void forget(int id) {
+        pending.remove(id);
+    }
+
+    // Stops the timer and writes whatever is still pending; called before the writer shuts down.
+    void shutdown() {
+        if (task != null) {
+            task.cancel();
+            task = null;
+        }
+        // The first flush may only wait for one already in flight.
+        flush().join();
+        flush().join();
+    }
+
+    // One flush at a time: a new one starts only once the previous batch has committed or failed.
+    CompletableFuture<Void> flush() {
+        Map<Integer, Integer> batch;
+        synchronized (this) {
+            if (!flushing.isEmpty()) return inFlight;
+            if (pending.isEmpty()) return CompletableFuture.completedFuture(null);
+            batch = new HashMap<>(pending);
+            flushing = batch;
+            pending.clear();
+        }
+
+        CompletableFuture<Void> future = writer.submit(connection -> {
+            try (PreparedStatement ps = connection.prepareStatement("UPDATE death_replays SET play_count = play_count + ? WHERE id = ?")) {
+                for (Map.Entry<Integer, Integer> entry : batch.entrySet()) {
+                    ps.setInt(1, entry.getValue());
+                    ps.setInt(2, entry.getKey());
+                    ps.addBatch();
+                }
+                ps.executeBatch();
+            }
+            return null;
+        }).handle((ignored, error) -> {
+            synchronized (this) {
+                if (error == null) {
+                    // The grid takes the counts before they stop being reported as in flight.
+                    for (Map.Entry<Integer, Integer> entry : batch.entrySet()) {
+                        replayGrid.addPlayCount(entry.getKey(), entry.getValue());
+                    }
+                } else {
+                    plugin.getLogger().log(Level.SEVERE, "Could not write " + batch.size() + " play counts, will retry", error);
+                    for (Map.Entry<Integer, Integer> entry : batch.entrySet()) {
+                        pending.merge(entry.getKey(), entry.getValue(), Integer::sum);
+                    }
+                }
+                flushing = new HashMap<>();
+            }
+            return null;
+        });
+        synchronized (this) {
+            if (flushing == batch) inFlight = future;
+        }
+        return future;
+    }
+}
@@ -0,0 +1,138 @@
+package com.spectralreplay.database;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+// Small pool of read-only connections. Under WAL each reader sees the last committed state and
+// never waits on the writer, so lookups from different threads run in parallel with saves.
+// Leases are numbered in the order they are handed out, so callers can tell whether any reader
+// still running may have looked something up before a given point.
+class ReaderPool {
+
+    private static final long ACQUIRE_TIMEOUT_MILLIS = 5000L;
+
+    private final String url;
+    private final int size;
+    private final BlockingQueue<Connection> idle;
+    private final List<Connection> all = new ArrayList<>();
+    private final TreeSet<Long> leased = new TreeSet<>();
+    private long lastLease = 0;
+    private boolean closed = false;
+
+    ReaderPool(String url, int size) {
+        this.url = url;
+        this.size = Math.max(1, size);
+        this.idle = new ArrayBlockingQueue<>(this.size);
+    }
+
+    Lease acquire() throws SQLException {
+        Connection connection = idle.poll();
+        if (connection == null) {
+            connection = open();
+        }
+        if (connection == null) {
+            try {
+                connection = idle.poll(ACQUIRE_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new SQLException("Interrupted while waiting for a database reader", e);
+            }
+            if (connection == null) {
+                throw new SQLException("Timed out waiting for a database reader");
+            }
+        }
+        synchronized (this) {
+            long sequence = ++lastLease;
+            leased.add(sequence);
+            return new Lease(connection, sequence);
+        }
+    }
+
+    // The number of the last lease handed out.
+    synchronized long lastLease() {
+        return lastLease;
+    }
+
+    // The number of the oldest lease still held, or Long.MAX_VALUE if none is.
+    synchronized long oldestLease() {
+        return leased.isEmpty() ? Long.MAX_VALUE : leased.first();
+    }
+
+    synchronized void close() {
+        closed = true;
+        for (Connection connection : all) {
+            try {
+                connection.close();
+            } catch (SQLException ignored) {
+            }
+        }
+        all.clear();
+        idle.clear();
+    }
+
+    // Opens a new connection while the pool is below its size, otherwise returns null.
+    private synchronized Connection open() throws SQLException {
+        if (closed) throw new SQLException("Database is closed");
+        if (all.size() >= size) return null;
+
+        Connection connection = DriverManager.getConnection(url);
+        try (Statement statement = connection.createStatement()) {
+            statement.execute("PRAGMA query_only=ON");
+        } catch (SQLException e) {
+            connection.close();
+            throw e;
+        }
+        all.add(connection);
+        return connection;
+    }
+
+    private void release(Connection connection, long sequence) {
+        synchronized (this) {
+            leased.remove(sequence);
+        }
+        boolean usable;
+        try {
+            usable = !connection.isClosed();
+        } catch (SQLException e) {
+            usable = false;
+        }
+
+        synchronized (this) {
+            if (closed || !usable) {
+                all.remove(connection);
+                try {
+                    connection.close();
+                } catch (SQLException ignored) {
+                }
+                return;
+            }
+        }
+        idle.offer(connection);
+    }
+
+    final class Lease implements AutoCloseable {
+        final Connection connection;
+        private final long sequence;
+        private boolean released = false;
+
+        private Lease(Connection connection, long sequence) {
+            this.connection = connection;
+            this.sequence = sequence;
+        }
+
+        @Override
+        public void close() {
+            if (released) return;
+            released = true;
+            release(connection, sequence);
+        }
+    }
+}
@@ -0,0 +1,215 @@
+package com.spectralreplay.database;
+
+import com.spectralreplay.model.FrameCursor;
+import com.spectralreplay.model.ReplayFrame;
+import com.spectralreplay.model.ReplayTrack;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+// Fully decoded replays, least recently played evicted first. The bound is an estimate of the heap
+// the frames take rather than an entry count, since one replay can be a handful of keyframes or a
+// full window of samples. Items are shared ItemPool instances and are not counted.
+public class ReplayCache {
+
+    private static final long ENTRY_BYTES = 96;
+    private static final long TRACK_BYTES = 64;
+    private static final long FRAME_BYTES = 88;
+
+    private final long maxBytes;
+    private final LinkedHashMap<Integer, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long bytes = 0;
+    private long generation = 0;
+    private long hits = 0;
+    private long misses = 0;
+    private long evictions = 0;
+
+    ReplayCache(long maxBytes) {
+        this.maxBytes = Math.max(0L, maxBytes);
+    }
+
+    public boolean isEnabled() {
+        return maxBytes > 0;
+    }
+
+    // Fresh cursors over the cached tracks, or null on a miss.
+    synchronized List<ReplayTrack> get(int id) {
+        Entry entry = entries.get(id);
+        if (entry == null) {
+            misses++;
+            return null;
+        }
+        hits++;
+        return entry.open();
+    }
+
+    // Like get(), but a miss is not counted: used by the same-tick proximity trigger, which falls
+    // back to the normal load path and would otherwise count every miss twice.
+    synchronized List<ReplayTrack> getIfPresent(int id) {
+        Entry entry = entries.get(id);
+        if (entry == null) return null;
+        hits++;
+        return entry.open();
+    }
+
+    // Taken before reading a blob and handed back to put(), so a replay deleted while it was
+    // being decoded is not cached afterwards.
+    synchronized long generation() {
+        return generation;
+    }
+
+    synchronized void put(int id, long readGeneration, List<UUID> uuids, List<List<ReplayFrame>> frames) {
+        if (!isEnabled() || readGeneration != generation) return;
+
+        Entry entry = new Entry(uuids, frames);
+        if (entry.bytes > maxBytes) return;
+
+        Entry previous = entries.put(id, entry);
+        if (previous != null) bytes -= previous.bytes;
+        bytes += entry.bytes;
+
+        Iterator<Map.Entry<Integer, Entry>> eldest = entries.entrySet().iterator();
+        while (bytes > maxBytes && eldest.hasNext()) {
+            Entry evicted = eldest.next().getValue();
+            eldest.remove();
+            bytes -= evicted.bytes;
+            evictions++;
+        }
+    }
+
+    // Wraps freshly decoded tracks so frames are kept as they are read; once every track has been
+    // read to the end the replay is put in the cache. Playback stays lazy, and a replay that is
+    // stopped early is simply not cached.
+    List<ReplayTrack> fill(int id, long readGeneration, List<ReplayTrack> tracks) {
+        if (!isEnabled() || tracks.isEmpty()) return tracks;
+        Fill fill = new Fill(id, readGeneration, tracks.size());
+        List<ReplayTrack> wrapped = new ArrayList<>(tracks.size());
+        for (int i = 0; i < tracks.size(); i++) {
+            fill.uuids.add(tracks.get(i).uuid);
+            fill.frames.add(new ArrayList<>());
+            wrapped.add(new ReplayTrack(tracks.get(i).uuid, new FillingCursor(fill, i, tracks.get(i).frames)));
+        }
+        return wrapped;
+    }
+
+    synchronized void invalidate(int id) {
+        generation++;
+        Entry entry = entries.remove(id);
+        if (entry != null) bytes -= entry.bytes;
+    }
+
+    synchronized void clear() {
+        generation++;
+        entries.clear();
+        bytes = 0;
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    public synchronized long getEvictions() {
+        return evictions;
+    }
+
+    public synchronized int getEntryCount() {
+        return entries.size();
+    }
+
+    public synchronized long getSizeBytes() {
+        return bytes;
+    }
+
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    private class Fill {
+        final int id;
+        final long generation;
+        final List<UUID> uuids = new ArrayList<>();
+        final List<List<ReplayFrame>> frames = new ArrayList<>();
+        int open;
+
+        Fill(int id, long generation, int tracks) {
+            this.id = id;
+            this.generation = generation;
+            this.open = tracks;
+        }
+
+        synchronized void finished() {
+            if (--open == 0 && !frames.get(0).isEmpty()) {
+                put(id, generation, uuids, frames);
+            }
+        }
+    }
+
+    private static class FillingCursor implements FrameCursor {
+        private final Fill fill;
+        private final List<ReplayFrame> frames;
+        private final FrameCursor source;
+        private boolean finished = false;
+
+        FillingCursor(Fill fill, int track, FrameCursor source) {
+            this.fill = fill;
+            this.frames = fill.frames.get(track);
+            this.source = source;
+        }
+
+        @Override
+        public ReplayFrame peek() {
+            ReplayFrame frame = source.peek();
+            if (frame == null) finish();
+            return frame;
+        }
+
+        @Override
+        public ReplayFrame next() {
+            ReplayFrame frame = source.next();
+            if (frame == null) {
+                finish();
+            } else {
+                frames.add(frame);
+            }
+            return frame;
+        }
+
+        private void finish() {
+            if (finished) return;
+            finished = true;
+            fill.finished();
+        }
+    }
+
+    private static class Entry {
+        final UUID[] uuids;
+        final List<List<ReplayFrame>> frames;
+        final long bytes;
+
+        Entry(List<UUID> uuids, List<List<ReplayFrame>> frames) {
+            this.uuids = uuids.toArray(new UUID[0]);
+            this.frames = frames;
+            long size = ENTRY_BYTES;
+            for (List<ReplayFrame> track : frames) {
+                size += TRACK_BYTES + FRAME_BYTES * track.size();
+            }
+            this.bytes = size;
+        }
+
+        List<ReplayTrack> open() {
+            List<ReplayTrack> tracks = new ArrayList<>(frames.size());
+            for (int i = 0; i < frames.size(); i++) {
+                tracks.add(ReplayTrack.of(uuids[i], frames.get(i)));
+            }
+            return tracks;
+        }
+    }
+}
@@ -0,0 +1,227 @@
+package com.spectralreplay.database;
+
+import com.spectralreplay.model.ReplayType;
+import org.bukkit.Bukkit;
+import org.bukkit.Location;
+import org.bukkit.World;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+// In-memory copy of replay metadata, bucketed per world by chunk. Proximity lookups are answered
+// from here without touching the database; only the replay that is actually played loads frames.
+// The grid is filled once from a metadata scan and then kept in step by DatabaseManager after each
+// committed write. Mutations arriving while the scan runs are queued and replayed on top of it.
+class ReplayGrid {
+
+    private final Map<String, Map<Long, List<Entry>>> worlds = new HashMap<>();
+    private final Map<Integer, Entry> byId = new HashMap<>();
+    private final Map<Long, List<Entry>> byMatch = new HashMap<>();
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private List<Runnable> pending = new ArrayList<>();
+    private volatile boolean loaded = false;
+    private boolean abandoned = false;
+
+    boolean isLoaded() {
+        return loaded;
+    }
+
+    void load(List<Entry> entries) {
+        lock.writeLock().lock();
+        try {
+            for (Entry entry : entries) {
+                insert(entry);
+            }
+            for (Runnable mutation : pending) {
+                mutation.run();
+            }
+            pending = null;
+            loaded = true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    // The initial scan failed; lookups keep going to the database and mutations are dropped.
+    void abandon() {
+        lock.writeLock().lock();
+        try {
+            pending = null;
+            abandoned = true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    void add(Entry entry) {
+        mutate(() -> insert(entry));
+    }
+
+    void remove(int id) {
+        mutate(() -> delete(byId.get(id)));
+    }
+
+    void removeMatch(long matchId) {
+        mutate(() -> {
+            List<Entry> match = byMatch.get(matchId);
+            if (match == null) return;
+            for (Entry entry : new ArrayList<>(match)) {
+                delete(entry);
+            }
+        });
+    }
+
+    void addPlayCount(int id, int plays) {
+        mutate(() -> {
+            Entry entry = byId.get(id);
+            if (entry != null) entry.playCount += plays;
+        });
+    }
+
+    // False until the grid is loaded.
+    boolean contains(int id) {
+        if (!loaded) return false;
+        lock.readLock().lock();
+        try {
+            return byId.containsKey(id);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // Same box as the SQL lookup: every replay within radius on each axis.
+    List<DatabaseManager.ReplayData> query(Location location, double radius, ReplayType type) {
+        return query(location.getWorld(), location.getX() - radius, location.getY() - radius, location.getZ() - radius,
+                location.getX() + radius, location.getY() + radius, location.getZ() + radius, type);
+    }
+
+    List<DatabaseManager.ReplayData> query(World world, double xMin, double yMin, double zMin, double xMax, double yMax, double zMax, ReplayType type) {
+        List<DatabaseManager.ReplayData> replays = new ArrayList<>();
+        lock.readLock().lock();
+        try {
+            Map<Long, List<Entry>> chunks = worlds.get(world.getName());
+            if (chunks == null) return replays;
+
+            for (int cx = chunkCoord(xMin); cx <= chunkCoord(xMax); cx++) {
+                for (int cz = chunkCoord(zMin); cz <= chunkCoord(zMax); cz++) {
+                    List<Entry> cell = chunks.get(chunkKey(cx, cz));
+                    if (cell == null) continue;
+                    for (Entry entry : cell) {
+                        if (type != null && entry.type != type) continue;
+                        if (entry.x < xMin || entry.x > xMax || entry.z < zMin || entry.z > zMax || entry.y < yMin || entry.y > yMax) continue;
+                        replays.add(entry.toReplayData(world));
+                    }
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        return replays;
+    }
+
+    List<DatabaseManager.ReplayData> match(long matchId) {
+        List<DatabaseManager.ReplayData> replays = new ArrayList<>();
+        lock.readLock().lock();
+        try {
+            List<Entry> match = byMatch.get(matchId);
+            if (match == null) return replays;
+            for (Entry entry : match) {
+                World world = Bukkit.getWorld(entry.world);
+                if (world != null) {
+                    replays.add(entry.toReplayData(world));
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        return replays;
+    }
+
+    private void mutate(Runnable mutation) {
+        lock.writeLock().lock();
+        try {
+            if (abandoned) return;
+            if (pending != null) {
+                pending.add(mutation);
+            } else {
+                mutation.run();
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void insert(Entry entry) {
+        delete(byId.get(entry.id));
+        byId.put(entry.id, entry);
+        worlds.computeIfAbsent(entry.world, k -> new HashMap<>())
+                .computeIfAbsent(chunkKey(chunkCoord(entry.x), chunkCoord(entry.z)), k -> new ArrayList<>(2))
+                .add(entry);
+        if (entry.matchId != 0) {
+            byMatch.computeIfAbsent(entry.matchId, k -> new ArrayList<>(2)).add(entry);
+        }
+    }
+
+    private void delete(Entry entry) {
+        if (entry == null) return;
+        byId.remove(entry.id);
+
+        Map<Long, List<Entry>> chunks = worlds.get(entry.world);
+        if (chunks != null) {
+            long key = chunkKey(chunkCoord(entry.x), chunkCoord(entry.z));
+            List<Entry> cell = chunks.get(key);
+            if (cell != null) {
+                cell.remove(entry);
+                if (cell.isEmpty()) chunks.remove(key);
+            }
+        }
+
+        List<Entry> match = byMatch.get(entry.matchId);
+        if (match != null) {
+            match.remove(entry);
+            if (match.isEmpty()) byMatch.remove(entry.matchId);
+        }
+    }
+
+    static int chunkCoord(double coordinate) {
+        return (int) Math.floor(coordinate) >> 4;
+    }
+
+    private static long chunkKey(int chunkX, int chunkZ) {
+        return ((long) chunkX << 32) | (chunkZ & 0xFFFFFFFFL);
+    }
+
+    static class Entry {
+        final int id;
+        final UUID uuid;
+        final String world;
+        final double x;
+        final double y;
+        final double z;
+        final ReplayType type;
+        final long timestamp;
+        final long matchId;
+        int playCount;
+
+        Entry(int id, UUID uuid, String world, double x, double y, double z, ReplayType type, long timestamp, long matchId, int playCount) {
+            this.id = id;
+            this.uuid = uuid;
+            this.world = world.intern();
+            this.x = x;
+            this.y = y;
+            this.z = z;
+            this.type = type;
+            this.timestamp = timestamp;
+            this.matchId = matchId;
+            this.playCount = playCount;
+        }
+
+        DatabaseManager.ReplayData toReplayData(World world) {
+            return new DatabaseManager.ReplayData(id, uuid, new Location(world, x, y, z), null, type, timestamp, playCount, matchId);
+        }
+    }
+}
@@ -0,0 +1,290 @@
+package com.spectralreplay.database;
+
+import com.spectralreplay.SpectralReplay;
+import com.spectralreplay.model.ReplayTrack;
+import org.bukkit.scheduler.BukkitRunnable;
+import org.bukkit.scheduler.BukkitTask;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.CompletionException;
+import java.util.logging.Level;
+
+// Re-encodes replays still in the legacy format to the current one, a small batch at a time on an
+// async timer. Progress is checkpointed in spectral_meta in the same transaction as each batch,
+// so a restart resumes where it stopped and a format bump starts a fresh pass.
+public class ReplayMigrator {
+
+    private static final String KEY_VERSION = "migration.version";
+    private static final String KEY_LAST_ID = "migration.last_id";
+    private static final String KEY_MIGRATED = "migration.migrated";
+    private static final String KEY_FAILED = "migration.failed";
+    private static final String KEY_BYTES_SAVED = "migration.bytes_saved";
+
+    private final SpectralReplay plugin;
+    private final DatabaseManager databaseManager;
+    private final ReplaySerializer serializer;
+    private final DatabaseWriter writer;
+    private final ReplayStore store;
+    private final AtomicBoolean busy = new AtomicBoolean(false);
+    private BukkitTask task;
+
+    private volatile long lastId = 0;
+    private volatile long migrated = 0;
+    private volatile long failed = 0;
+    private volatile long bytesSaved = 0;
+    private volatile boolean complete = false;
+
+    ReplayMigrator(SpectralReplay plugin, DatabaseManager databaseManager, ReplaySerializer serializer, DatabaseWriter writer, ReplayStore store) {
+        this.plugin = plugin;
+        this.databaseManager = databaseManager;
+        this.serializer = serializer;
+        this.writer = writer;
+        this.store = store;
+    }
+
+    static void createTable(Statement statement) throws SQLException {
+        statement.execute("CREATE TABLE IF NOT EXISTS spectral_meta (" +
+                "key VARCHAR(64) PRIMARY KEY," +
+                "value TEXT NOT NULL" +
+                ")");
+    }
+
+    public void start() {
+        if (!plugin.getConfig().getBoolean("database.migration.enabled", true)) return;
+
+        try {
+            loadCheckpoint();
+        } catch (SQLException e) {
+            plugin.getLogger().log(Level.SEVERE, "Could not load replay migration checkpoint", e);
+            return;
+        }
+        if (complete) return;
+
+        int batchSize = Math.max(1, plugin.getConfig().getInt("database.migration.batch-size", 50));
+        long interval = Math.max(1L, plugin.getConfig().getLong("database.migration.interval", 40L));
+
+        task = new BukkitRunnable() {
+            @Override
+            public void run() {
+                if (!busy.compareAndSet(false, true)) return;
+                try {
+                    if (!migrateBatch(batchSize)) {
+                        complete = true;
+                        plugin.getLogger().info("Replay migration finished: " + migrated + " replays re-encoded, "
+                                + formatBytes(bytesSaved) + " saved" + (failed > 0 ? ", " + failed + " unreadable replays left as-is." : "."));
+                        this.cancel();
+                    }
+                } catch (SQLException e) {
+                    plugin.getLogger().log(Level.SEVERE, "Replay migration batch failed, will retry", e);
+                } finally {
+                    busy.set(false);
+                }
+            }
+        }.runTaskTimerAsynchronously(plugin, interval, interval);
+    }
+
+    public void stop() {
+        if (task != null) {
+            task.cancel();
+            task = null;
+        }
+    }
+
+    public boolean isRunning() {
+        return task != null && !task.isCancelled() && !complete;
+    }
+
+    public boolean isComplete() {
+        return complete;
+    }
+
+    public long getLastId() {
+        return lastId;
+    }
+
+    public long getMigratedCount() {
+        return migrated;
+    }
+
+    public long getFailedCount() {
+        return failed;
+    }
+
+    public long getBytesSaved() {
+        return bytesSaved;
+    }
+
+    public int countRemaining() {
+        try (ReaderPool.Lease reader = databaseManager.openReader();
+             PreparedStatement ps = reader.connection.prepareStatement("SELECT COUNT(*) FROM death_replays WHERE id > ?")) {
+            ps.setLong(1, lastId);
+            try (ResultSet rs = ps.executeQuery()) {
+                return rs.next() ? rs.getInt(1) : 0;
+            }
+        } catch (SQLException e) {
+            plugin.getLogger().log(Level.WARNING, "Could not count remaining replays", e);
+            return -1;
+        }
+    }
+
+    // Returns false once there is nothing left past the checkpoint.
+    private boolean migrateBatch(int batchSize) throws SQLException {
+        List<Integer> ids = new ArrayList<>();
+        List<List<ReplayTrack>> decoded = new ArrayList<>();
+        List<Integer> originalSizes = new ArrayList<>();
+        long batchLastId = lastId;
+        long batchFailed = 0;
+
+        try (ReaderPool.Lease reader = databaseManager.openReader();
+             PreparedStatement ps = reader.connection.prepareStatement(
+                "SELECT id, world, uuid FROM death_replays WHERE id > ? ORDER BY id LIMIT ?")) {
+            ps.setLong(1, lastId);
+            ps.setInt(2, batchSize);
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    int id = rs.getInt("id");
+                    batchLastId = id;
+                    ByteBuffer data;
+                    try {
+                        data = store.read(reader.connection, id);
+                    } catch (SQLException e) {
+                        batchFailed++;
+                        plugin.getLogger().warning("Could not read replay " + id + " for migration: " + e.getMessage());
+                        continue;
+                    }
+                    if (data == null) continue;
+                    int size = data.remaining();
+                    int version = ReplaySerializer.version(data);
+                    if (version == ReplaySerializer.DATA_VERSION) continue;
+
+                    try {
+                        List<ReplayTrack> tracks = serializer.decodeStrict(reader.connection, data, rs.getString("world"), UUID.fromString(rs.getString("uuid")));
+                        if (tracks.isEmpty() || !tracks.get(0).frames.hasNext()) throw new IOException("No frames");
+                        ids.add(id);
+                        decoded.add(tracks);
+                        originalSizes.add(size);
+                    } catch (IOException e) {
+                        batchFailed++;
+                        plugin.getLogger().warning("Could not migrate replay " + id + " (version " + version + "): " + e.getMessage());
+                    }
+                }
+            }
+        }
+        if (batchLastId == lastId) return false;
+
+        // Re-encoding runs on the writer so item dictionary inserts share the batch's transaction.
+        long checkpoint = batchLastId;
+        long failedTotal = failed + batchFailed;
+        long[] batchResult;
+        try {
+            batchResult = writer.submit(connection -> {
+                long saved = 0;
+                int rewritten = 0;
+                try (PreparedStatement exists = connection.prepareStatement("SELECT 1 FROM death_replays WHERE id = ?")) {
+                    for (int i = 0; i < ids.size(); i++) {
+                        // Deleted since the scan; writing it back would leave a blob nothing points to.
+                        exists.setInt(1, ids.get(i));
+                        try (ResultSet rs = exists.executeQuery()) {
+                            if (!rs.next()) continue;
+                        }
+                        byte[] reencoded = serializer.serialize(decoded.get(i));
+                        store.write(connection, ids.get(i), reencoded);
+                        saved += originalSizes.get(i) - reencoded.length;
+                        rewritten++;
+                    }
+                }
+                writeMeta(connection, KEY_LAST_ID, checkpoint);
+                writeMeta(connection, KEY_MIGRATED, migrated + rewritten);
+                writeMeta(connection, KEY_FAILED, failedTotal);
+                writeMeta(connection, KEY_BYTES_SAVED, bytesSaved + saved);
+                return new long[] {rewritten, saved};
+            }).join();
+        } catch (CompletionException e) {
+            throw new SQLException("Could not write migrated replays", e.getCause());
+        }
+
+        lastId = checkpoint;
+        migrated += batchResult[0];
+        failed = failedTotal;
+        bytesSaved += batchResult[1];
+        return true;
+    }
+
+    private void loadCheckpoint() throws SQLException {
+        long version;
+        try (ReaderPool.Lease reader = databaseManager.openReader()) {
+            version = readMeta(reader.connection, KEY_VERSION);
+        }
+
+        if (version != ReplaySerializer.DATA_VERSION) {
+            // New target format: every replay has to be looked at again.
+            try {
+                writer.submit(connection -> {
+                    writeMeta(connection, KEY_VERSION, ReplaySerializer.DATA_VERSION);
+                    writeMeta(connection, KEY_LAST_ID, 0);
+                    writeMeta(connection, KEY_MIGRATED, 0);
+                    writeMeta(connection, KEY_FAILED, 0);
+                    writeMeta(connection, KEY_BYTES_SAVED, 0);
+                    return null;
+                }).join();
+            } catch (CompletionException e) {
+                throw new SQLException("Could not reset migration checkpoint", e.getCause());
+            }
+        }
+
+        try (ReaderPool.Lease reader = databaseManager.openReader()) {
+            readCheckpoint(reader.connection);
+        }
+    }
+
+    private void readCheckpoint(Connection connection) throws SQLException {
+        lastId = readMeta(connection, KEY_LAST_ID);
+        migrated = readMeta(connection, KEY_MIGRATED);
+        failed = readMeta(connection, KEY_FAILED);
+        bytesSaved = readMeta(connection, KEY_BYTES_SAVED);
+
+        try (PreparedStatement ps = connection.prepareStatement("SELECT MAX(id) FROM death_replays");
+             ResultSet rs = ps.executeQuery()) {
+            complete = !rs.next() || rs.getLong(1) <= lastId;
+        }
+    }
+
+    private static long readMeta(Connection connection, String key) throws SQLException {
+        try (PreparedStatement ps = connection.prepareStatement("SELECT value FROM spectral_meta WHERE key = ?")) {
+            ps.setString(1, key);
+            try (ResultSet rs = ps.executeQuery()) {
+                if (rs.next()) {
+                    try {
+                        return Long.parseLong(rs.getString(1));
+                    } catch (NumberFormatException ignored) {
+                    }
+                }
+            }
+        }
+        return -1;
+    }
+
+    private static void writeMeta(Connection connection, String key, long value) throws SQLException {
+        try (PreparedStatement ps = connection.prepareStatement("INSERT OR REPLACE INTO spectral_meta (key, value) VALUES (?, ?)")) {
+            ps.setString(1, key);
+            ps.setString(2, Long.toString(value));
+            ps.executeUpdate();
+        }
+    }
+
+    public static String formatBytes(long bytes) {
+        if (Math.abs(bytes) < 1024) return bytes + " B";
+        if (Math.abs(bytes) < 1024 * 1024) return String.format("%.1f KB", bytes / 1024.0);
+        return String.format("%.1f MB", bytes / (1024.0 * 1024.0));
+    }
+}
@@ -0,0 +1,397 @@
+package com.spectralreplay.database;
+
+import com.spectralreplay.SpectralReplay;
+import org.bukkit.scheduler.BukkitRunnable;
+import org.bukkit.scheduler.BukkitTask;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Level;
+
+// Deletes replays that retention rules say are no longer needed, one small batch per run on an
+// async timer, and hands the freed space back to the file system with incremental vacuum and
+// segment compaction. Once a sweep has deleted something, item dictionary rows no replay
+// references any more are collected as well.
+// Placed replays, and every replay of a match one of them belongs to, are never deleted.
+public class ReplayRetention {
+
+    private static final String NOT_PLACED = "id NOT IN (SELECT replay_id FROM placed_replays) " +
+            "AND (match_id IS NULL OR match_id NOT IN (SELECT r.match_id FROM death_replays r " +
+            "JOIN placed_replays p ON p.replay_id = r.id WHERE r.match_id IS NOT NULL))";
+
+    private final SpectralReplay plugin;
+    private final DatabaseManager databaseManager;
+    private final DatabaseWriter writer;
+    private final ReplayStore store;
+    private final ReplaySerializer serializer;
+    private final ItemDictionary itemDictionary;
+    private final AtomicBoolean busy = new AtomicBoolean(false);
+    private BukkitTask task;
+
+    private final int batchSize;
+    private final long maxAgeMillis;
+    private final boolean deleteExhausted;
+    private final int maxPerChunk;
+    private final long maxSizeBytes;
+    private final boolean vacuum;
+
+    private volatile long deleted = 0;
+    private volatile long dataBytes = 0;
+    private volatile long fileBytes = 0;
+    private volatile long lastRun = 0;
+
+    // Totals of the sweep in progress, logged once a run finds less than a full batch.
+    private long sweepDeleted = 0;
+    private long sweepDataBytes = 0;
+    private long sweepFileBytes = 0;
+    // Also true on start, for items left behind before this ran.
+    private boolean collectItems = true;
+    private boolean checkAutoVacuum = true;
+
+    ReplayRetention(SpectralReplay plugin, DatabaseManager databaseManager, DatabaseWriter writer, ReplayStore store,
+                    ReplaySerializer serializer, ItemDictionary itemDictionary) {
+        this.plugin = plugin;
+        this.databaseManager = databaseManager;
+        this.writer = writer;
+        this.store = store;
+        this.serializer = serializer;
+        this.itemDictionary = itemDictionary;
+        // Ids are bound twice per statement, which keeps a batch well under SQLite's variable limit.
+        this.batchSize = Math.max(1, Math.min(400, plugin.getConfig().getInt("database.retention.batch-size", 100)));
+        this.maxAgeMillis = TimeUnit.DAYS.toMillis(Math.max(0L, plugin.getConfig().getLong("database.retention.max-age-days", 0L)));
+        this.deleteExhausted = plugin.getConfig().getBoolean("database.retention.delete-exhausted", false);
+        this.maxPerChunk = Math.max(0, plugin.getConfig().getInt("database.retention.max-per-chunk", 0));
+        this.maxSizeBytes = Math.max(0L, plugin.getConfig().getLong("database.retention.max-size-mb", 0L)) * 1024L * 1024L;
+        this.vacuum = vacuumEnabled(plugin);
+    }
+
+    static boolean vacuumEnabled(SpectralReplay plugin) {
+        return plugin.getConfig().getBoolean("database.retention.vacuum", true);
+    }
+
+    public void start() {
+        if (!plugin.getConfig().getBoolean("database.retention.enabled", true)) return;
+
+        long interval = Math.max(1L, plugin.getConfig().getLong("database.retention.interval", 200L));
+        task = new BukkitRunnable() {
+            @Override
+            public void run() {
+                if (!busy.compareAndSet(false, true)) return;
+                try {
+                    runBatch();
+                } catch (SQLException e) {
+                    plugin.getLogger().log(Level.SEVERE, "Replay retention batch failed, will retry", e);
+                } finally {
+                    busy.set(false);
+                }
+            }
+        }.runTaskTimerAsynchronously(plugin, interval, interval);
+    }
+
+    public void stop() {
+        if (task != null) {
+            task.cancel();
+            task = null;
+        }
+    }
+
+    public boolean isRunning() {
+        return task != null && !task.isCancelled();
+    }
+
+    public long getDeletedCount() {
+        return deleted;
+    }
+
+    public long getDataBytesReclaimed() {
+        return dataBytes;
+    }
+
+    public long getFileBytesReclaimed() {
+        return fileBytes;
+    }
+
+    public long getLastRun() {
+        return lastRun;
+    }
+
+    // Bytes held by live pages, i.e. what the file would be after a full vacuum, plus segment files.
+    public long usedBytes() {
+        try (ReaderPool.Lease reader = databaseManager.openReader()) {
+            return usedBytes(reader.connection) + store.externalBytes();
+        } catch (SQLException e) {
+            plugin.getLogger().log(Level.WARNING, "Could not read database size", e);
+            return -1;
+        }
+    }
+
+    private void runBatch() throws SQLException {
+        lastRun = System.currentTimeMillis();
+        if (vacuum && checkAutoVacuum) {
+            checkAutoVacuum = false;
+            enableIncrementalVacuum();
+        }
+        Set<Integer> candidates = new LinkedHashSet<>();
+        try (ReaderPool.Lease reader = databaseManager.openReader()) {
+            Connection connection = reader.connection;
+            if (maxAgeMillis > 0) {
+                select(connection, candidates, "SELECT id FROM death_replays WHERE timestamp < ? AND " + NOT_PLACED +
+                        " ORDER BY timestamp LIMIT ?", lastRun - maxAgeMillis);
+            }
+            int maxPlays = plugin.getSpectralConfig().maxPlaysPerReplay;
+            if (deleteExhausted && maxPlays != -1) {
+                select(connection, candidates, "SELECT id FROM death_replays WHERE play_count >= ? AND " + NOT_PLACED +
+                        " ORDER BY timestamp LIMIT ?", maxPlays);
+            }
+            if (maxPerChunk > 0) {
+                // Everything older than the newest max-per-chunk replays of its chunk. The offset stops
+                // the walk through idx_death_replays_chunk_time after max-per-chunk rows.
+                select(connection, candidates, "SELECT id FROM death_replays o WHERE EXISTS (SELECT 1 FROM death_replays n " +
+                        "WHERE n.world = o.world AND n.chunk_x = o.chunk_x AND n.chunk_z = o.chunk_z AND n.timestamp > o.timestamp " +
+                        "LIMIT 1 OFFSET ?) AND " + NOT_PLACED + " ORDER BY timestamp LIMIT ?", maxPerChunk - 1);
+            }
+            if (maxSizeBytes > 0 && candidates.size() < batchSize && usedBytes(connection) + store.externalBytes() > maxSizeBytes) {
+                select(connection, candidates, "SELECT id FROM death_replays WHERE " + NOT_PLACED +
+                        " ORDER BY timestamp LIMIT ?", null);
+            }
+        }
+
+        if (!candidates.isEmpty()) {
+            deleteBatch(new ArrayList<>(candidates));
+        }
+        long compacted = store.compact();
+        fileBytes += compacted;
+        sweepFileBytes += compacted;
+        if (candidates.size() < batchSize && sweepDeleted > 0) {
+            plugin.getLogger().info("Replay retention removed " + sweepDeleted + " replays: " + ReplayMigrator.formatBytes(sweepDataBytes)
+                    + " of replay data" + (vacuum || sweepFileBytes > 0 ? ", " + ReplayMigrator.formatBytes(sweepFileBytes) + " returned to disk." : "."));
+            sweepDeleted = 0;
+            sweepDataBytes = 0;
+            sweepFileBytes = 0;
+            collectItems = true;
+        }
+        if (candidates.size() < batchSize && collectItems) {
+            collectItems();
+            collectItems = false;
+        }
+    }
+
+    // Incremental auto-vacuum lets retention return freed pages to the file system. Databases
+    // created without it need one full VACUUM to switch over, which rewrites the whole file, so it
+    // runs here off the main thread; database writes wait until it is done.
+    private void enableIncrementalVacuum() throws SQLException {
+        try {
+            writer.runExclusive(connection -> {
+                if (pragma(connection, "auto_vacuum") == 2) return null;
+                plugin.getLogger().info("Enabling incremental vacuum, compacting the database once. Replays are saved once this finishes...");
+                long start = System.currentTimeMillis();
+                long before = pragma(connection, "page_count") * pragma(connection, "page_size");
+                try (Statement statement = connection.createStatement()) {
+                    statement.execute("PRAGMA auto_vacuum=INCREMENTAL");
+                    statement.execute("VACUUM");
+                }
+                long freed = before - pragma(connection, "page_count") * pragma(connection, "page_size");
+                fileBytes += freed;
+                plugin.getLogger().info("Database compacted in " + (System.currentTimeMillis() - start) / 1000 + "s, "
+                        + ReplayMigrator.formatBytes(freed) + " returned to disk.");
+                return null;
+            });
+        } catch (SQLException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new SQLException("Could not enable incremental vacuum", e);
+        }
+    }
+
+    // Mark and sweep over replay_items. Item ids are only referenced from inside blobs, so the
+    // dictionary of every blob is read on a reader and everything else is deleted on the writer.
+    // Ids the dictionary hands out meanwhile may belong to replays the scan missed and are kept.
+    private void collectItems() throws SQLException {
+        itemDictionary.startTracking();
+        try {
+            // Writes that resolved their items before tracking started commit before the scan.
+            writer.submit(connection -> null).join();
+
+            Set<Integer> referenced = new HashSet<>();
+            int maxItemId;
+            try (ReaderPool.Lease reader = databaseManager.openReader()) {
+                Connection connection = reader.connection;
+                maxItemId = (int) scalar(connection, "SELECT COALESCE(MAX(id), 0) FROM replay_items");
+                int lastId = 0;
+                boolean more = true;
+                while (more) {
+                    more = false;
+                    try (PreparedStatement ps = connection.prepareStatement("SELECT id FROM death_replays WHERE id > ? ORDER BY id LIMIT 500")) {
+                        ps.setInt(1, lastId);
+                        try (ResultSet rs = ps.executeQuery()) {
+                            while (rs.next()) {
+                                lastId = rs.getInt(1);
+                                more = true;
+                                ByteBuffer data = store.read(connection, lastId);
+                                if (data == null) continue;
+                                try {
+                                    serializer.collectItemIds(data, referenced);
+                                } catch (IOException e) {
+                                    // Its items are unknown, so nothing can safely be collected.
+                                    plugin.getLogger().warning("Skipping item cleanup, could not read replay " + lastId + ": " + e.getMessage());
+                                    return;
+                                }
+                            }
+                        }
+                    }
+                }
+            }
+
+            long[] removed = writer.submit(connection -> {
+                // Runs on the writer thread, the only caller of idFor, so no id is handed out after this.
+                referenced.addAll(itemDictionary.stopTracking());
+                List<Integer> unused = new ArrayList<>();
+                long bytes = 0;
+                try (PreparedStatement ps = connection.prepareStatement("SELECT id, length(data) FROM replay_items WHERE id <= ?")) {
+                    ps.setInt(1, maxItemId);
+                    try (ResultSet rs = ps.executeQuery()) {
+                        while (rs.next()) {
+                            if (referenced.contains(rs.getInt(1))) continue;
+                            unused.add(rs.getInt(1));
+                            bytes += rs.getLong(2);
+                        }
+                    }
+                }
+                if (unused.isEmpty()) return new long[] {0, 0, 0};
+
+                try (PreparedStatement ps = connection.prepareStatement("DELETE FROM replay_items WHERE id = ?")) {
+                    for (int id : unused) {
+                        ps.setInt(1, id);
+                        ps.addBatch();
+                    }
+                    ps.executeBatch();
+                }
+                itemDictionary.clearCache();
+                return new long[] {unused.size(), bytes, vacuum ? incrementalVacuum(connection) : 0};
+            }).join();
+
+            if (removed[0] > 0) {
+                dataBytes += removed[1];
+                fileBytes += removed[2];
+                plugin.getLogger().info("Replay retention removed " + removed[0] + " unused item dictionary entries: "
+                        + ReplayMigrator.formatBytes(removed[1]) + ".");
+            }
+        } catch (CompletionException e) {
+            throw new SQLException("Could not remove unused replay items", e.getCause());
+        } finally {
+            itemDictionary.stopTracking();
+        }
+    }
+
+    // Adds up to the rest of a batch. The first parameter, when given, precedes the limit.
+    private void select(Connection connection, Set<Integer> into, String sql, Object parameter) throws SQLException {
+        int room = batchSize - into.size();
+        if (room <= 0) return;
+        try (PreparedStatement ps = connection.prepareStatement(sql)) {
+            int index = 1;
+            if (parameter != null) ps.setObject(index++, parameter);
+            // Over-fetch by what is already selected so overlaps do not shrink the batch.
+            ps.setInt(index, room + into.size());
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next() && into.size() < batchSize) {
+                    into.add(rs.getInt(1));
+                }
+            }
+        }
+    }
+
+    private void deleteBatch(List<Integer> ids) throws SQLException {
+        // Deleting one replay of an older PVP pair takes the rest of its match with it.
+        StringBuilder placeholders = new StringBuilder();
+        for (int i = 0; i < ids.size(); i++) {
+            placeholders.append(i == 0 ? "?" : ", ?");
+        }
+        String selectSql = "SELECT id FROM death_replays WHERE id IN (" + placeholders + ") " +
+                "OR match_id IN (SELECT match_id FROM death_replays WHERE id IN (" + placeholders + ") AND match_id IS NOT NULL)";
+
+        Result result;
+        try {
+            result = writer.submit(connection -> {
+                Result batch = new Result();
+                try (PreparedStatement ps = connection.prepareStatement(selectSql)) {
+                    for (int i = 0; i < ids.size(); i++) {
+                        ps.setInt(i + 1, ids.get(i));
+                        ps.setInt(ids.size() + i + 1, ids.get(i));
+                    }
+                    try (ResultSet rs = ps.executeQuery()) {
+                        while (rs.next()) {
+                            batch.ids.add(rs.getInt(1));
+                        }
+                    }
+                }
+
+                try (PreparedStatement rows = connection.prepareStatement("DELETE FROM death_replays WHERE id = ?")) {
+                    for (int id : batch.ids) {
+                        batch.dataBytes += store.delete(connection, id);
+                        rows.setInt(1, id);
+                        rows.addBatch();
+                    }
+                    rows.executeBatch();
+                }
+
+                if (vacuum) {
+                    batch.fileBytes = incrementalVacuum(connection);
+                }
+                return batch;
+            }).join();
+        } catch (CompletionException e) {
+            throw new SQLException("Could not delete expired replays", e.getCause());
+        }
+
+        databaseManager.forgetReplays(result.ids);
+        deleted += result.ids.size();
+        dataBytes += result.dataBytes;
+        fileBytes += result.fileBytes;
+        sweepDeleted += result.ids.size();
+        sweepDataBytes += result.dataBytes;
+        sweepFileBytes += result.fileBytes;
+    }
+
+    // Returns the bytes the file shrank by.
+    private static long incrementalVacuum(Connection connection) throws SQLException {
+        long before = pragma(connection, "page_count");
+        try (Statement statement = connection.createStatement()) {
+            statement.execute("PRAGMA incremental_vacuum");
+        }
+        return (before - pragma(connection, "page_count")) * pragma(connection, "page_size");
+    }
+
+    private static long usedBytes(Connection connection) throws SQLException {
+        return (pragma(connection, "page_count") - pragma(connection, "freelist_count")) * pragma(connection, "page_size");
+    }
+
+    private static long pragma(Connection connection, String name) throws SQLException {
+        return scalar(connection, "PRAGMA " + name);
+    }
+
+    private static long scalar(Connection connection, String sql) throws SQLException {
+        try (Statement statement = connection.createStatement();
+             ResultSet rs = statement.executeQuery(sql)) {
+            return rs.next() ? rs.getLong(1) : 0;
+        }
+    }
+
+    private static class Result {
+        final List<Integer> ids = new ArrayList<>();
+        long dataBytes = 0;
+        long fileBytes = 0;
+    }
+}
@@ -0,0 +1,543 @@
+package com.spectralreplay.database;
+
+import com.spectralreplay.SpectralReplay;
+import com.spectralreplay.model.FrameCursor;
+import com.spectralreplay.model.ItemPool;
+import com.spectralreplay.model.PlayerAction;
+import com.spectralreplay.model.ReplayFrame;
+import com.spectralreplay.model.ReplayTrack;
+import org.bukkit.World;
+import org.bukkit.inventory.ItemStack;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+
+// Binary layout of the replay_data blob.
+//
+// Version 3 (current):
+//   int magic, int version, byte codec, [varint body length unless codec is NONE],
+//   body compressed with the codec:
+//   varint itemCount, itemCount x varint replay_items id (see ItemDictionary),
+//   varint trackCount, trackCount x (long uuid msb, long uuid lsb, varint byte length,
+//   varint frameCount, frameCount x frame)
+// Tracks share the item dictionary and the tick timeline, and each restarts the delta chain.
+// A frame is
+//   byte flags (bits 0-2 action, bit 3 sneaking, bit 4 equipment follows)
+//   varint tick delta, 3 x zigzag varlong position delta in 1/4096 block
+//   byte yaw, byte pitch
+//   [varint hand, varint armorCount + 1, armorCount x varint armor]   (1-based item indices, 0 = empty)
+//
+// Version 2 stores raw doubles/floats and inline item blobs on every frame, one frame per tick,
+// as a single track owned by the row's uuid.
+class ReplaySerializer {
+
+    static final int MAGIC_NUMBER = 0x53524550;
+    static final int DATA_VERSION = 3;
+    static final int LEGACY_DATA_VERSION = 2;
+
+    private static final double POSITION_SCALE = 4096.0;
+    private static final int FLAG_ACTION_MASK = 0x07;
+    private static final int FLAG_SNEAKING = 0x08;
+    private static final int FLAG_EQUIPMENT = 0x10;
+    private static final PlayerAction[] ACTIONS = PlayerAction.values();
+
+    private final SpectralReplay plugin;
+    private final BlobCodec codec;
+    private final ItemDictionary itemDictionary;
+
+    ReplaySerializer(SpectralReplay plugin, BlobCodec codec, ItemDictionary itemDictionary) {
+        this.plugin = plugin;
+        this.codec = codec;
+        this.itemDictionary = itemDictionary;
+    }
+
+    byte[] serialize(List<ReplayTrack> tracks) throws IOException {
+        byte[] body = serializeBody(tracks);
+        byte[] compressed = codec.compress(body);
+        try (ByteArrayOutputStream baos = new ByteArrayOutputStream();
+             DataOutputStream dos = new DataOutputStream(baos)) {
+            dos.writeInt(MAGIC_NUMBER);
+            dos.writeInt(DATA_VERSION);
+            dos.writeByte(codec.id);
+            if (codec != BlobCodec.NONE) {
+                writeVarInt(dos, body.length);
+            }
+            dos.write(compressed);
+            dos.flush();
+            return baos.toByteArray();
+        }
+    }
+
+    private byte[] serializeBody(List<ReplayTrack> tracks) throws IOException {
+        try (ByteArrayOutputStream baos = new ByteArrayOutputStream();
+             DataOutputStream dos = new DataOutputStream(baos)) {
+
+            // Frames share canonical ItemPool instances, so the dictionary can be keyed by identity.
+            Map<ItemStack, Integer> dictionary = new IdentityHashMap<>();
+            List<Integer> dictionaryIds = new ArrayList<>();
+            List<List<ReplayFrame>> trackFrames = new ArrayList<>(tracks.size());
+            // Per track and frame: hand index, armor count + 1 (0 = no armor array), armor indices.
+            List<int[][]> trackEquipment = new ArrayList<>(tracks.size());
+            for (ReplayTrack track : tracks) {
+                List<ReplayFrame> frames = new ArrayList<>();
+                while (track.frames.hasNext()) {
+                    frames.add(track.frames.next());
+                }
+                int[][] equipment = new int[frames.size()][];
+                for (int i = 0; i < frames.size(); i++) {
+                    ReplayFrame frame = frames.get(i);
+                    ItemStack[] armor = frame.getArmor();
+                    int[] indices = new int[armor != null ? armor.length + 2 : 2];
+                    indices[0] = dictionaryIndex(frame.getItemInHand(), dictionary, dictionaryIds);
+                    indices[1] = armor != null ? armor.length + 1 : 0;
+                    for (int j = 2; j < indices.length; j++) {
+                        indices[j] = dictionaryIndex(armor[j - 2], dictionary, dictionaryIds);
+                    }
+                    equipment[i] = indices;
+                }
+                trackFrames.add(frames);
+                trackEquipment.add(equipment);
+            }
+
+            writeVarInt(dos, dictionaryIds.size());
+            for (int itemId : dictionaryIds) {
+                writeVarInt(dos, itemId);
+            }
+
+            writeVarInt(dos, tracks.size());
+            for (int t = 0; t < tracks.size(); t++) {
+                UUID uuid = tracks.get(t).uuid;
+                dos.writeLong(uuid != null ? uuid.getMostSignificantBits() : 0L);
+                dos.writeLong(uuid != null ? uuid.getLeastSignificantBits() : 0L);
+                // Length-prefixed so a reader can open every track without decoding the ones before it.
+                byte[] section = serializeTrack(trackFrames.get(t), trackEquipment.get(t));
+                writeVarInt(dos, section.length);
+                dos.write(section);
+            }
+            dos.flush();
+            return baos.toByteArray();
+        }
+    }
+
+    private byte[] serializeTrack(List<ReplayFrame> frames, int[][] equipment) throws IOException {
+        try (ByteArrayOutputStream baos = new ByteArrayOutputStream();
+             DataOutputStream dos = new DataOutputStream(baos)) {
+            writeVarInt(dos, frames.size());
+            int lastTick = 0;
+            long lastX = 0, lastY = 0, lastZ = 0;
+            int[] lastEquipment = null;
+            for (int i = 0; i < frames.size(); i++) {
+                ReplayFrame frame = frames.get(i);
+                boolean equipmentChanged = lastEquipment == null || !Arrays.equals(lastEquipment, equipment[i]);
+
+                int flags = frame.getAction().ordinal() & FLAG_ACTION_MASK;
+                if (frame.isSneaking()) flags |= FLAG_SNEAKING;
+                if (equipmentChanged) flags |= FLAG_EQUIPMENT;
+                dos.writeByte(flags);
+
+                writeVarInt(dos, frame.getTick() - lastTick);
+                lastTick = frame.getTick();
+
+                long qx = Math.round(frame.getX() * POSITION_SCALE);
+                long qy = Math.round(frame.getY() * POSITION_SCALE);
+                long qz = Math.round(frame.getZ() * POSITION_SCALE);
+                writeVarLong(dos, zigzag(qx - lastX));
+                writeVarLong(dos, zigzag(qy - lastY));
+                writeVarLong(dos, zigzag(qz - lastZ));
+                lastX = qx;
+                lastY = qy;
+                lastZ = qz;
+
+                dos.writeByte(quantizeYaw(frame.getYaw()));
+                dos.writeByte(quantizePitch(frame.getPitch()));
+
+                if (equipmentChanged) {
+                    for (int index : equipment[i]) {
+                        writeVarInt(dos, index);
+                    }
+                    lastEquipment = equipment[i];
+                }
+            }
+            dos.flush();
+            return baos.toByteArray();
+        }
+    }
+
+    List<ReplayFrame> deserialize(Connection connection, byte[] data, World world) {
+        return deserialize(connection, ByteBuffer.wrap(data), world);
+    }
+
+    List<ReplayFrame> deserialize(Connection connection, ByteBuffer buffer, World world) {
+        List<ReplayFrame> frames = new ArrayList<>();
+        FrameCursor cursor = openCursor(connection, buffer, world);
+        while (cursor.hasNext()) {
+            frames.add(cursor.next());
+        }
+        return frames;
+    }
+
+    // The first track only.
+    FrameCursor openCursor(Connection connection, ByteBuffer buffer, World world) {
+        List<ReplayTrack> tracks = openTracks(connection, buffer, world, null);
+        return tracks.isEmpty() ? FrameCursor.of(new ArrayList<>()) : tracks.get(0).frames;
+    }
+
+    // Parses the header and item dictionary up front; compact frames are then decoded lazily.
+    // Legacy blobs inline items on every frame and are decoded eagerly, as a single track
+    // owned by the given owner. Tracks saved without a uuid are reported as the owner's too. Item ids are resolved through the given
+    // connection, which is the reader the blob was read with.
+    List<ReplayTrack> openTracks(Connection connection, ByteBuffer buffer, World world, UUID owner) {
+        try {
+            return open(connection, buffer, world.getName(), owner, false);
+        } catch (BufferUnderflowException e) {
+            plugin.getLogger().warning("Unexpected end of file while reading replay frames. Replay might be truncated.");
+        } catch (IOException e) {
+            plugin.getLogger().warning(e.getMessage() + ". Skipping replay.");
+        } catch (Exception e) {
+            plugin.getLogger().warning("Error reading a frame: " + e.getMessage());
+        }
+        return new ArrayList<>();
+    }
+
+    // Decodes every frame and fails instead of returning a partial replay, or one with an item
+    // that could not be read, so callers that rewrite blobs never replace a damaged replay with
+    // a truncated one.
+    List<ReplayTrack> decodeStrict(Connection connection, byte[] data, String worldName, UUID owner) throws IOException {
+        return decodeStrict(connection, ByteBuffer.wrap(data), worldName, owner);
+    }
+
+    List<ReplayTrack> decodeStrict(Connection connection, ByteBuffer data, String worldName, UUID owner) throws IOException {
+        try {
+            List<ReplayTrack> tracks = new ArrayList<>();
+            for (ReplayTrack track : open(connection, data, worldName, owner, true)) {
+                List<ReplayFrame> frames;
+                if (track.frames instanceof CompactCursor) {
+                    frames = ((CompactCursor) track.frames).drain();
+                } else {
+                    frames = new ArrayList<>();
+                    while (track.frames.hasNext()) {
+                        frames.add(track.frames.next());
+                    }
+                }
+                tracks.add(ReplayTrack.of(track.uuid, frames));
+            }
+            return tracks;
+        } catch (BufferUnderflowException e) {
+            throw new IOException("Truncated replay data", e);
+        } catch (SQLException e) {
+            throw new IOException("Could not resolve replay items", e);
+        } catch (RuntimeException e) {
+            throw new IOException("Corrupt replay data", e);
+        }
+    }
+
+    // Adds the replay_items ids a blob references; only its dictionary is read. Legacy blobs
+    // inline their items and reference none.
+    void collectItemIds(ByteBuffer data, Set<Integer> into) throws IOException {
+        if (version(data) != DATA_VERSION) return;
+        ByteBuffer buffer = data.duplicate();
+        buffer.position(buffer.position() + 8);
+        try {
+            ByteBuffer body = decompressBody(buffer);
+            int itemCount = readVarInt(body);
+            for (int i = 0; i < itemCount; i++) {
+                into.add(readVarInt(body));
+            }
+        } catch (RuntimeException e) {
+            throw new IOException("Corrupt replay data", e);
+        }
+    }
+
+    // Returns the format version of a blob, or -1 if it is not replay data.
+    static int version(byte[] data) {
+        return data == null ? -1 : version(ByteBuffer.wrap(data));
+    }
+
+    // Reads from the buffer's position without moving it.
+    static int version(ByteBuffer data) {
+        if (data == null || data.remaining() < 8) return -1;
+        if (data.getInt(data.position()) != MAGIC_NUMBER) return -1;
+        return data.getInt(data.position() + 4);
+    }
+
+    private List<ReplayTrack> open(Connection connection, ByteBuffer buffer, String worldName, UUID owner, boolean strict) throws IOException, SQLException {
+        List<ReplayTrack> tracks = new ArrayList<>();
+        if (buffer.remaining() < 8) return tracks;
+
+        if (buffer.getInt() != MAGIC_NUMBER) {
+            throw new IOException("Invalid replay data format (Magic Number mismatch)");
+        }
+
+        int version = buffer.getInt();
+        if (version == DATA_VERSION) {
+            ByteBuffer body = decompressBody(buffer);
+            ItemStack[] dictionary = readDictionary(connection, body, strict);
+            int trackCount = readVarInt(body);
+            for (int i = 0; i < trackCount; i++) {
+                long msb = body.getLong();
+                long lsb = body.getLong();
+                int length = readVarInt(body);
+                if (length > body.remaining()) throw new BufferUnderflowException();
+                ByteBuffer section = body.slice();
+                section.limit(length);
+                body.position(body.position() + length);
+                UUID uuid = msb == 0L && lsb == 0L ? owner : new UUID(msb, lsb);
+                tracks.add(new ReplayTrack(uuid, new CompactCursor(section, worldName, dictionary)));
+            }
+        } else if (version == LEGACY_DATA_VERSION) {
+            List<ReplayFrame> frames = new ArrayList<>();
+            readLegacyFrames(buffer, worldName, frames, strict);
+            tracks.add(ReplayTrack.of(owner, frames));
+        } else {
+            throw new IOException("Incompatible data version: " + version + " (Expected: " + DATA_VERSION + ")");
+        }
+        return tracks;
+    }
+
+    private ByteBuffer decompressBody(ByteBuffer buffer) throws IOException {
+        BlobCodec blobCodec = BlobCodec.byId(buffer.get() & 0xFF);
+        int length = blobCodec != BlobCodec.NONE ? readVarInt(buffer) : buffer.remaining();
+        return blobCodec.decompress(buffer, length);
+    }
+
+    // Strict reads fail on an item that cannot be restored; otherwise it plays as empty.
+    private ItemStack[] readDictionary(Connection connection, ByteBuffer buffer, boolean strict) throws IOException, SQLException {
+        int itemCount = readVarInt(buffer);
+        ItemStack[] dictionary = new ItemStack[itemCount + 1];
+        for (int i = 1; i <= itemCount; i++) {
+            int itemId = readVarInt(buffer);
+            dictionary[i] = itemDictionary.itemFor(connection, itemId);
+            if (strict && dictionary[i] == null) {
+                throw new IOException("Could not read item dictionary entry " + itemId);
+            }
+        }
+        return dictionary;
+    }
+
+    private void readLegacyFrames(ByteBuffer buffer, String worldName, List<ReplayFrame> frames, boolean strict) throws IOException {
+        int size = buffer.getInt();
+        Map<ByteBuffer, ItemStack> itemCache = new HashMap<>();
+        for (int tick = 0; tick < size; tick++) {
+            double x = buffer.getDouble();
+            double y = buffer.getDouble();
+            double z = buffer.getDouble();
+            float yaw = buffer.getFloat();
+            float pitch = buffer.getFloat();
+            int actionOrd = buffer.get();
+            boolean sneaking = buffer.get() != 0;
+
+            ItemStack item = readLegacyItem(buffer, itemCache, strict);
+
+            int armorCount = buffer.getInt();
+            ItemStack[] armor = new ItemStack[armorCount];
+            for (int j = 0; j < armorCount; j++) {
+                armor[j] = readLegacyItem(buffer, itemCache, strict);
+            }
+
+            PlayerAction action = ACTIONS[Math.min(Math.max(actionOrd, 0), ACTIONS.length - 1)];
+            frames.add(new ReplayFrame(worldName, x, y, z, yaw, pitch, action, sneaking, item, armor, tick));
+        }
+    }
+
+    private ItemStack readLegacyItem(ByteBuffer buffer, Map<ByteBuffer, ItemStack> cache, boolean strict) throws IOException {
+        int length = buffer.getInt();
+        if (length <= 0) return null;
+        byte[] itemBytes = new byte[length];
+        buffer.get(itemBytes);
+
+        ByteBuffer key = ByteBuffer.wrap(itemBytes);
+        if (cache.containsKey(key)) {
+            return cache.get(key);
+        }
+        ItemStack item = ItemPool.intern(deserializeItem(itemBytes));
+        if (strict && item == null) {
+            throw new IOException("Could not deserialize an item");
+        }
+        cache.put(key, item);
+        return item;
+    }
+
+    private int dictionaryIndex(ItemStack item, Map<ItemStack, Integer> dictionary, List<Integer> dictionaryIds) throws IOException {
+        ItemStack canonical = ItemPool.intern(item);
+        if (canonical == null) return 0;
+        Integer index = dictionary.get(canonical);
+        if (index == null) {
+            int itemId;
+            try {
+                itemId = itemDictionary.idFor(canonical);
+            } catch (SQLException e) {
+                throw new IOException("Could not store item in dictionary", e);
+            }
+            if (itemId == 0) return 0;
+            dictionaryIds.add(itemId);
+            index = dictionaryIds.size();
+            dictionary.put(canonical, index);
+        }
+        return index;
+    }
+
+    private ItemStack deserializeItem(byte[] data) {
+        return itemDictionary.deserializeItem(data);
+    }
+
+    private class CompactCursor implements FrameCursor {
+        private final ByteBuffer buffer;
+        private final String worldName;
+        private final ItemStack[] dictionary;
+        private int remaining;
+        private int tick = 0;
+        private long qx = 0, qy = 0, qz = 0;
+        private ItemStack item = null;
+        private ItemStack[] armor = null;
+        private ReplayFrame peeked = null;
+
+        CompactCursor(ByteBuffer buffer, String worldName, ItemStack[] dictionary) {
+            this.buffer = buffer;
+            this.worldName = worldName;
+            this.dictionary = dictionary;
+            this.remaining = readVarInt(buffer);
+        }
+
+        @Override
+        public ReplayFrame peek() {
+            if (peeked == null && remaining > 0) {
+                try {
+                    peeked = decode();
+                    remaining--;
+                } catch (BufferUnderflowException e) {
+                    plugin.getLogger().warning("Unexpected end of file while reading replay frames. Replay might be truncated.");
+                    remaining = 0;
+                } catch (Exception e) {
+                    plugin.getLogger().warning("Error reading a frame: " + e.getMessage());
+                    remaining = 0;
+                }
+            }
+            return peeked;
+        }
+
+        @Override
+        public ReplayFrame next() {
+            ReplayFrame frame = peek();
+            peeked = null;
+            return frame;
+        }
+
+        List<ReplayFrame> drain() {
+            List<ReplayFrame> frames = new ArrayList<>(remaining);
+            for (; remaining > 0; remaining--) {
+                frames.add(decode());
+            }
+            return frames;
+        }
+
+        private ReplayFrame decode() {
+            int flags = buffer.get() & 0xFF;
+            tick += readVarInt(buffer);
+            qx += unzigzag(readVarLong(buffer));
+            qy += unzigzag(readVarLong(buffer));
+            qz += unzigzag(readVarLong(buffer));
+            float yaw = dequantizeYaw(buffer.get());
+            float pitch = dequantizePitch(buffer.get());
+
+            // Equipment only follows when the dictionary indices changed; otherwise the
+            // previous frame's references carry over.
+            if ((flags & FLAG_EQUIPMENT) != 0) {
+                item = dictionary[readVarInt(buffer)];
+                int armorCount = readVarInt(buffer) - 1;
+                if (armorCount < 0) {
+                    armor = null;
+                } else {
+                    armor = new ItemStack[armorCount];
+                    for (int j = 0; j < armorCount; j++) {
+                        armor[j] = dictionary[readVarInt(buffer)];
+                    }
+                }
+            }
+
+            PlayerAction action = ACTIONS[Math.min(flags & FLAG_ACTION_MASK, ACTIONS.length - 1)];
+            return new ReplayFrame(worldName, qx / POSITION_SCALE, qy / POSITION_SCALE, qz / POSITION_SCALE,
+                    yaw, pitch, action, (flags & FLAG_SNEAKING) != 0, item, armor, tick);
+        }
+    }
+
+    private static int quantizeYaw(float yaw) {
+        return Math.round(yaw * 256.0f / 360.0f) & 0xFF;
+    }
+
+    private static float dequantizeYaw(byte value) {
+        float yaw = (value & 0xFF) * 360.0f / 256.0f;
+        return yaw >= 180.0f ? yaw - 360.0f : yaw;
+    }
+
+    private static int quantizePitch(float pitch) {
+        float clamped = Math.max(-90.0f, Math.min(90.0f, pitch));
+        return Math.round((clamped + 90.0f) * 255.0f / 180.0f);
+    }
+
+    private static float dequantizePitch(byte value) {
+        return (value & 0xFF) * 180.0f / 255.0f - 90.0f;
+    }
+
+    static void writeVarInt(DataOutputStream out, int value) throws IOException {
+        while ((value & ~0x7F) != 0) {
+            out.writeByte((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte(value);
+    }
+
+    static void writeVarLong(DataOutputStream out, long value) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            out.writeByte((int) (value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte((int) value);
+    }
+
+    static int readVarInt(ByteBuffer buffer) {
+        int value = 0;
+        int shift = 0;
+        byte b;
+        do {
+            if (shift > 28) throw new IllegalStateException("VarInt too long");
+            b = buffer.get();
+            value |= (b & 0x7F) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+        return value;
+    }
+
+    static long readVarLong(ByteBuffer buffer) {
+        long value = 0;
+        int shift = 0;
+        byte b;
+        do {
+            if (shift > 63) throw new IllegalStateException("VarLong too long");
+            b = buffer.get();
+            value |= (long) (b & 0x7F) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+        return value;
+    }
+
+    private static long zigzag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    private static long unzigzag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+}
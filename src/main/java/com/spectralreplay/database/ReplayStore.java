@@ -0,0 +1,33 @@
+package com.spectralreplay.database;
+
+import java.nio.ByteBuffer;
+import java.sql.Connection;
+import java.sql.SQLException;
+
+// Where serialized replays are kept. Metadata always lives in death_replays; a store only maps a
+// replay id to its blob. Writes and deletes run on the writer's connection inside its
+// transaction, reads on whichever reader connection the caller holds.
+interface ReplayStore {
+
+    // Adds or replaces the blob of a replay.
+    void write(Connection connection, int replayId, byte[] data) throws SQLException;
+
+    // The blob of a replay positioned at its first byte, or null if there is none.
+    ByteBuffer read(Connection connection, int replayId) throws SQLException;
+
+    // Returns the size of the removed blob, or 0 if there was none.
+    long delete(Connection connection, int replayId) throws SQLException;
+
+    // Makes every write so far durable. The writer calls it right before each commit, so a
+    // committed row never points at data that has not reached the disk.
+    default void sync() throws SQLException {
+    }
+
+    // Bytes kept outside the database file.
+    long externalBytes();
+
+    // Releases space left behind by deleted or replaced blobs. Returns the bytes freed.
+    long compact() throws SQLException;
+
+    void close();
+}
@@ -0,0 +1,320 @@
+package com.spectralreplay.database;
+
+import com.spectralreplay.SpectralReplay;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+
+// Blobs appended to segment files next to the database, with only their position kept in
+// replay_segments. Reads return a slice of the memory-mapped segment rather than a copy through
+// JDBC; uncompressed replays are decoded straight from the page cache, compressed ones are
+// inflated from it. Writes only ever append; a replaced or deleted blob stays in its segment
+// until compaction copies the live blobs out of a mostly dead segment and deletes the file once
+// no reader can still be looking at it. Each server start appends to a new segment, so a
+// segment is never extended past a crash. Replays still in replay_blobs stay readable there.
+class SegmentReplayStore implements ReplayStore {
+
+    private static final String SUFFIX = ".seg";
+    // Segments whose live blobs take up less than this share of the file are rewritten.
+    private static final double COMPACT_BELOW = 0.5;
+
+    private final SpectralReplay plugin;
+    private final DatabaseManager databaseManager;
+    private final DatabaseWriter writer;
+    private final File directory;
+    private final long segmentBytes;
+    private final Map<Integer, MappedByteBuffer> mapped = new ConcurrentHashMap<>();
+    // Empty segments waiting for older readers to finish, with the last lease handed out when
+    // they were found empty. Only touched by compact().
+    private final Map<Integer, Long> retired = new HashMap<>();
+
+    private int activeSegment;
+    private FileChannel activeChannel;
+    private long activeSize;
+    private boolean unsynced = false;
+
+    SegmentReplayStore(SpectralReplay plugin, DatabaseManager databaseManager, DatabaseWriter writer) {
+        this.plugin = plugin;
+        this.databaseManager = databaseManager;
+        this.writer = writer;
+        this.directory = new File(plugin.getDataFolder(), "segments");
+        // A mapped buffer is indexed by int, so one segment cannot reach 2 GB.
+        this.segmentBytes = Math.max(1L, Math.min(1024L, plugin.getConfig().getLong("database.segments.size-mb", 64L))) * 1024L * 1024L;
+        if (!directory.exists()) {
+            directory.mkdirs();
+        }
+
+        int last = 0;
+        for (int segment : listSegments()) {
+            last = Math.max(last, segment);
+        }
+        activeSegment = last;
+    }
+
+    static void createTable(Statement statement) throws SQLException {
+        statement.execute("CREATE TABLE IF NOT EXISTS replay_segments (" +
+                "replay_id INTEGER PRIMARY KEY," +
+                "segment INTEGER NOT NULL," +
+                "offset INTEGER NOT NULL," +
+                "length INTEGER NOT NULL" +
+                ")");
+        statement.execute("CREATE INDEX IF NOT EXISTS idx_replay_segments_segment ON replay_segments (segment)");
+    }
+
+    static boolean hasSegments(Statement statement) throws SQLException {
+        try (ResultSet rs = statement.executeQuery("SELECT 1 FROM replay_segments LIMIT 1")) {
+            return rs.next();
+        }
+    }
+
+    @Override
+    public void write(Connection connection, int replayId, byte[] data) throws SQLException {
+        long offset;
+        int segment;
+        synchronized (this) {
+            try {
+                if (activeChannel == null || (activeSize > 0 && activeSize + data.length > segmentBytes)) {
+                    roll();
+                }
+                // Positional writes: bytes left past activeSize by a write that failed halfway are
+                // simply overwritten by the next one.
+                ByteBuffer source = ByteBuffer.wrap(data);
+                while (source.hasRemaining()) {
+                    activeChannel.write(source, activeSize + source.position());
+                }
+                unsynced = true;
+            } catch (IOException e) {
+                throw new SQLException("Could not append replay to segment " + activeSegment, e);
+            }
+            segment = activeSegment;
+            offset = activeSize;
+            activeSize += data.length;
+        }
+
+        try (PreparedStatement ps = connection.prepareStatement("INSERT OR REPLACE INTO replay_segments (replay_id, segment, offset, length) VALUES (?, ?, ?, ?)")) {
+            ps.setInt(1, replayId);
+            ps.setInt(2, segment);
+            ps.setLong(3, offset);
+            ps.setInt(4, data.length);
+            ps.executeUpdate();
+        }
+        // A replay rewritten by the migrator moves out of the table.
+        SqliteReplayStore.deleteBlob(connection, replayId);
+    }
+
+    @Override
+    public synchronized void sync() throws SQLException {
+        if (!unsynced || activeChannel == null) return;
+        try {
+            activeChannel.force(false);
+            unsynced = false;
+        } catch (IOException e) {
+            throw new SQLException("Could not flush replay segment " + activeSegment, e);
+        }
+    }
+
+    @Override
+    public ByteBuffer read(Connection connection, int replayId) throws SQLException {
+        int segment;
+        long offset;
+        int length;
+        try (PreparedStatement ps = connection.prepareStatement("SELECT segment, offset, length FROM replay_segments WHERE replay_id = ?")) {
+            ps.setInt(1, replayId);
+            try (ResultSet rs = ps.executeQuery()) {
+                if (!rs.next()) return SqliteReplayStore.readBlob(connection, replayId);
+                segment = rs.getInt(1);
+                offset = rs.getLong(2);
+                length = rs.getInt(3);
+            }
+        }
+
+        try {
+            ByteBuffer view = map(segment, offset + length).duplicate();
+            view.limit((int) (offset + length));
+            view.position((int) offset);
+            return view.slice();
+        } catch (IOException e) {
+            throw new SQLException("Could not read replay " + replayId + " from segment " + segment, e);
+        }
+    }
+
+    @Override
+    public long delete(Connection connection, int replayId) throws SQLException {
+        long size = 0;
+        try (PreparedStatement ps = connection.prepareStatement("SELECT length FROM replay_segments WHERE replay_id = ?")) {
+            ps.setInt(1, replayId);
+            try (ResultSet rs = ps.executeQuery()) {
+                if (rs.next()) size = rs.getLong(1);
+            }
+        }
+        try (PreparedStatement ps = connection.prepareStatement("DELETE FROM replay_segments WHERE replay_id = ?")) {
+            ps.setInt(1, replayId);
+            ps.executeUpdate();
+        }
+        return size + SqliteReplayStore.deleteBlob(connection, replayId);
+    }
+
+    @Override
+    public long externalBytes() {
+        long bytes = 0;
+        for (int segment : listSegments()) {
+            bytes += segmentFile(segment).length();
+        }
+        return bytes;
+    }
+
+    // Deletes segments no blob points into any more, then rewrites the live blobs of at most one
+    // mostly dead segment so a later pass can delete it. A reader leased before a segment was
+    // found empty may still hold a row pointing into it, so the file is kept until every such
+    // lease is back; slices already handed out stay valid, since a mapping outlives its file.
+    @Override
+    public long compact() throws SQLException {
+        Map<Integer, Long> live = new HashMap<>();
+        try (ReaderPool.Lease reader = databaseManager.openReader();
+             PreparedStatement ps = reader.connection.prepareStatement("SELECT segment, SUM(length) FROM replay_segments GROUP BY segment");
+             ResultSet rs = ps.executeQuery()) {
+            while (rs.next()) {
+                live.put(rs.getInt(1), rs.getLong(2));
+            }
+        }
+
+        int active;
+        synchronized (this) {
+            active = activeSegment;
+        }
+
+        long freed = 0;
+        int sparse = -1;
+        for (int segment : listSegments()) {
+            if (segment >= active) continue;
+            File file = segmentFile(segment);
+            long liveBytes = live.getOrDefault(segment, 0L);
+            if (liveBytes == 0) {
+                long retiredAt = retired.computeIfAbsent(segment, s -> databaseManager.getReaders().lastLease());
+                if (databaseManager.getReaders().oldestLease() <= retiredAt) continue;
+                long size = file.length();
+                mapped.remove(segment);
+                // Fails while the file is still mapped on some platforms; the next pass retries.
+                if (file.delete()) {
+                    freed += size;
+                    retired.remove(segment);
+                }
+            } else if (sparse == -1 && liveBytes < file.length() * COMPACT_BELOW) {
+                sparse = segment;
+            }
+        }
+        if (sparse != -1) {
+            rewrite(sparse);
+        }
+        return freed;
+    }
+
+    @Override
+    public synchronized void close() {
+        if (activeChannel != null) {
+            try {
+                activeChannel.close();
+            } catch (IOException e) {
+                plugin.getLogger().log(Level.WARNING, "Could not close replay segment " + activeSegment, e);
+            }
+            activeChannel = null;
+        }
+        mapped.clear();
+    }
+
+    private void rewrite(int segment) throws SQLException {
+        try {
+            writer.submit(connection -> {
+                List<Integer> ids = new ArrayList<>();
+                try (PreparedStatement ps = connection.prepareStatement("SELECT replay_id FROM replay_segments WHERE segment = ?")) {
+                    ps.setInt(1, segment);
+                    try (ResultSet rs = ps.executeQuery()) {
+                        while (rs.next()) {
+                            ids.add(rs.getInt(1));
+                        }
+                    }
+                }
+                for (int id : ids) {
+                    ByteBuffer blob = read(connection, id);
+                    if (blob == null) continue;
+                    byte[] data = new byte[blob.remaining()];
+                    blob.get(data);
+                    write(connection, id, data);
+                }
+                return null;
+            }).join();
+        } catch (CompletionException e) {
+            throw new SQLException("Could not compact replay segment " + segment, e.getCause());
+        }
+    }
+
+    // Starts the next segment; the previous one is never written again.
+    private void roll() throws IOException {
+        if (activeChannel != null) {
+            // Blobs appended earlier in this batch are not committed yet and still need flushing.
+            if (unsynced) activeChannel.force(false);
+            unsynced = false;
+            activeChannel.close();
+        }
+        activeSegment++;
+        activeChannel = FileChannel.open(segmentFile(activeSegment).toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        activeSize = activeChannel.size();
+    }
+
+    // The segment mapped far enough to cover the given end offset. The active segment grows,
+    // so its mapping is replaced whenever a read reaches past it.
+    private MappedByteBuffer map(int segment, long end) throws IOException {
+        MappedByteBuffer buffer = mapped.get(segment);
+        if (buffer != null && buffer.capacity() >= end) return buffer;
+
+        synchronized (mapped) {
+            buffer = mapped.get(segment);
+            if (buffer != null && buffer.capacity() >= end) return buffer;
+
+            try (FileChannel channel = FileChannel.open(segmentFile(segment).toPath(), StandardOpenOption.READ)) {
+                long size = channel.size();
+                if (size < end) {
+                    throw new IOException("Segment is " + size + " bytes, expected at least " + end);
+                }
+                buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            }
+            mapped.put(segment, buffer);
+            return buffer;
+        }
+    }
+
+    private File segmentFile(int segment) {
+        return new File(directory, String.format("%08d", segment) + SUFFIX);
+    }
+
+    private List<Integer> listSegments() {
+        List<Integer> segments = new ArrayList<>();
+        String[] names = directory.list();
+        if (names == null) return segments;
+        for (String name : names) {
+            if (!name.endsWith(SUFFIX)) continue;
+            try {
+                segments.add(Integer.parseInt(name.substring(0, name.length() - SUFFIX.length())));
+            } catch (NumberFormatException ignored) {
+            }
+        }
+        return segments;
+    }
+}
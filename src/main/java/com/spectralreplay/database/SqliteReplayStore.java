@@ -0,0 +1,77 @@
+package com.spectralreplay.database;
+
+import java.nio.ByteBuffer;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+// Blobs in the replay_blobs table of the database itself. Freed pages are returned by the
+// retention service's incremental vacuum, so there is nothing to compact here.
+class SqliteReplayStore implements ReplayStore {
+
+    static void createTable(Statement statement) throws SQLException {
+        statement.execute("CREATE TABLE IF NOT EXISTS replay_blobs (" +
+                "replay_id INTEGER PRIMARY KEY," +
+                "data BLOB NOT NULL" +
+                ")");
+    }
+
+    @Override
+    public void write(Connection connection, int replayId, byte[] data) throws SQLException {
+        try (PreparedStatement ps = connection.prepareStatement("INSERT OR REPLACE INTO replay_blobs (replay_id, data) VALUES (?, ?)")) {
+            ps.setInt(1, replayId);
+            ps.setBytes(2, data);
+            ps.executeUpdate();
+        }
+    }
+
+    @Override
+    public ByteBuffer read(Connection connection, int replayId) throws SQLException {
+        return readBlob(connection, replayId);
+    }
+
+    @Override
+    public long delete(Connection connection, int replayId) throws SQLException {
+        return deleteBlob(connection, replayId);
+    }
+
+    @Override
+    public long externalBytes() {
+        return 0;
+    }
+
+    @Override
+    public long compact() {
+        return 0;
+    }
+
+    @Override
+    public void close() {
+    }
+
+    static ByteBuffer readBlob(Connection connection, int replayId) throws SQLException {
+        try (PreparedStatement ps = connection.prepareStatement("SELECT data FROM replay_blobs WHERE replay_id = ?")) {
+            ps.setInt(1, replayId);
+            try (ResultSet rs = ps.executeQuery()) {
+                return rs.next() ? ByteBuffer.wrap(rs.getBytes(1)) : null;
+            }
+        }
+    }
+
+    static long deleteBlob(Connection connection, int replayId) throws SQLException {
+        long size = 0;
+        try (PreparedStatement ps = connection.prepareStatement("SELECT length(data) FROM replay_blobs WHERE replay_id = ?")) {
+            ps.setInt(1, replayId);
+            try (ResultSet rs = ps.executeQuery()) {
+                if (rs.next()) size = rs.getLong(1);
+            }
+        }
+        try (PreparedStatement ps = connection.prepareStatement("DELETE FROM replay_blobs WHERE replay_id = ?")) {
+            ps.setInt(1, replayId);
+            ps.executeUpdate();
+        }
+        return size;
+    }
+}
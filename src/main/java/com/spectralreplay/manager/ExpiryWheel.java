@@ -0,0 +1,199 @@
+package com.spectralreplay.manager;
+
+import java.util.Arrays;
+import java.util.UUID;
+
+// A set of keys that drop out on their own once their time is up: a hashed timing wheel over
+// primitive arrays. Keys are 128 bits (a UUID, or an int id with a zero high half), looked up
+// through chained hash buckets without boxing. Each entry also sits in the wheel slot of its
+// deadline; advanceTo() walks only the slots the clock passed, so expiry costs O(1) amortized
+// per entry and nothing is ever compared against the clock on lookup. Entries due more than one
+// revolution out stay in their slot and are skipped until their round comes.
+class ExpiryWheel {
+
+    private static final int NONE = -1;
+
+    private final long tickMillis;
+    private final int slotMask;
+    private final int[] slotHeads;
+    private long origin = -1;
+    private long currentTick = 0;
+
+    private int[] buckets;
+    private long[] keyHigh;
+    private long[] keyLow;
+    private long[] deadlines;
+    private int[] bucketNext;
+    private int[] slotNext;
+    private int[] slotPrev;
+    private int freeHead = NONE;
+    private int used = 0;
+    private int size = 0;
+
+    // slots is rounded up to a power of two.
+    ExpiryWheel(long tickMillis, int slots) {
+        this.tickMillis = Math.max(1L, tickMillis);
+        int wheelSize = Integer.highestOneBit(Math.max(2, slots - 1)) << 1;
+        this.slotMask = wheelSize - 1;
+        this.slotHeads = new int[wheelSize];
+        Arrays.fill(slotHeads, NONE);
+        allocate(64);
+    }
+
+    synchronized void add(int id, long durationMillis) {
+        put(0L, id, durationMillis);
+    }
+
+    synchronized void add(UUID uuid, long durationMillis) {
+        put(uuid.getMostSignificantBits(), uuid.getLeastSignificantBits(), durationMillis);
+    }
+
+    synchronized boolean contains(int id) {
+        return find(0L, id) != NONE;
+    }
+
+    synchronized boolean contains(UUID uuid) {
+        return find(uuid.getMostSignificantBits(), uuid.getLeastSignificantBits()) != NONE;
+    }
+
+    synchronized void remove(UUID uuid) {
+        int index = find(uuid.getMostSignificantBits(), uuid.getLeastSignificantBits());
+        if (index != NONE) release(index);
+    }
+
+    synchronized int size() {
+        return size;
+    }
+
+    synchronized void clear() {
+        Arrays.fill(slotHeads, NONE);
+        allocate(64);
+    }
+
+    // Expires everything due by the given time.
+    synchronized void advanceTo(long nowMillis) {
+        if (origin < 0) origin = nowMillis;
+        long target = (nowMillis - origin) / tickMillis;
+        // After a long stall one revolution visits every slot; skip the rest of the gap.
+        if (target - currentTick > slotHeads.length) {
+            currentTick = target - slotHeads.length;
+        }
+        while (currentTick < target) {
+            currentTick++;
+            int index = slotHeads[(int) (currentTick & slotMask)];
+            while (index != NONE) {
+                int next = slotNext[index];
+                if (deadlines[index] <= currentTick) release(index);
+                index = next;
+            }
+        }
+    }
+
+    private void put(long high, long low, long durationMillis) {
+        long deadline = currentTick + Math.max(1L, (durationMillis + tickMillis - 1) / tickMillis);
+        int index = find(high, low);
+        if (index != NONE) {
+            unlinkSlot(index);
+        } else {
+            index = take();
+            keyHigh[index] = high;
+            keyLow[index] = low;
+            int bucket = bucket(high, low);
+            bucketNext[index] = buckets[bucket];
+            buckets[bucket] = index;
+            size++;
+        }
+        deadlines[index] = deadline;
+        int slot = (int) (deadline & slotMask);
+        slotPrev[index] = NONE;
+        slotNext[index] = slotHeads[slot];
+        if (slotHeads[slot] != NONE) slotPrev[slotHeads[slot]] = index;
+        slotHeads[slot] = index;
+    }
+
+    private int find(long high, long low) {
+        int index = buckets[bucket(high, low)];
+        while (index != NONE) {
+            if (keyLow[index] == low && keyHigh[index] == high) return index;
+            index = bucketNext[index];
+        }
+        return NONE;
+    }
+
+    private void release(int index) {
+        unlinkSlot(index);
+        int bucket = bucket(keyHigh[index], keyLow[index]);
+        if (buckets[bucket] == index) {
+            buckets[bucket] = bucketNext[index];
+        } else {
+            int previous = buckets[bucket];
+            while (bucketNext[previous] != index) {
+                previous = bucketNext[previous];
+            }
+            bucketNext[previous] = bucketNext[index];
+        }
+        bucketNext[index] = freeHead;
+        freeHead = index;
+        size--;
+    }
+
+    private void unlinkSlot(int index) {
+        int previous = slotPrev[index];
+        int next = slotNext[index];
+        if (previous != NONE) {
+            slotNext[previous] = next;
+        } else {
+            slotHeads[(int) (deadlines[index] & slotMask)] = next;
+        }
+        if (next != NONE) slotPrev[next] = previous;
+    }
+
+    private int take() {
+        if (freeHead != NONE) {
+            int index = freeHead;
+            freeHead = bucketNext[index];
+            return index;
+        }
+        if (used == keyLow.length) grow();
+        return used++;
+    }
+
+    // Only called with no free entries. Doubles the entry arrays and rehashes into twice the
+    // buckets; slot links are indexes and stay valid.
+    private void grow() {
+        int capacity = keyLow.length * 2;
+        keyHigh = Arrays.copyOf(keyHigh, capacity);
+        keyLow = Arrays.copyOf(keyLow, capacity);
+        deadlines = Arrays.copyOf(deadlines, capacity);
+        bucketNext = Arrays.copyOf(bucketNext, capacity);
+        slotNext = Arrays.copyOf(slotNext, capacity);
+        slotPrev = Arrays.copyOf(slotPrev, capacity);
+
+        buckets = new int[capacity];
+        Arrays.fill(buckets, NONE);
+        for (int index = 0; index < used; index++) {
+            int bucket = bucket(keyHigh[index], keyLow[index]);
+            bucketNext[index] = buckets[bucket];
+            buckets[bucket] = index;
+        }
+    }
+
+    private void allocate(int capacity) {
+        buckets = new int[capacity];
+        Arrays.fill(buckets, NONE);
+        keyHigh = new long[capacity];
+        keyLow = new long[capacity];
+        deadlines = new long[capacity];
+        bucketNext = new int[capacity];
+        slotNext = new int[capacity];
+        slotPrev = new int[capacity];
+        freeHead = NONE;
+        used = 0;
+        size = 0;
+    }
+
+    private int bucket(long high, long low) {
+        long hash = (high ^ low) * 0x9E3779B97F4A7C15L;
+        return (int) (hash >>> 32) & (buckets.length - 1);
+    }
+}
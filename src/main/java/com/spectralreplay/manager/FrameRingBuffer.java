@@ -0,0 +1,315 @@
+package com.spectralreplay.manager;
+
+import com.spectralreplay.model.ItemPool;
+import com.spectralreplay.model.PlayerAction;
+import com.spectralreplay.model.ReplayFrame;
+import org.bukkit.Location;
+import org.bukkit.Material;
+import org.bukkit.World;
+import org.bukkit.entity.Player;
+import org.bukkit.inventory.ItemStack;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+
+// Per-player ring of parallel primitive arrays; slots are overwritten in place and
+// ReplayFrames are only materialized by snapshot().
+//
+// In keyframe mode the newest sample is held in the head slot as pending and the next
+// sample is written one slot ahead; the pending sample is only committed when it cannot
+// be reproduced by interpolating between the last keyframe and the new sample. Samples dropped
+// this way are kept until the next keyframe, and each new segment has to reproduce all of them.
+final class FrameRingBuffer {
+
+    private static final PlayerAction[] ACTIONS = PlayerAction.values();
+    // Samples dropped in a row before one is committed anyway, which bounds the check per tick.
+    private static final int MAX_DROPPED = 40;
+
+    private final int window;
+    private final int capacity;
+    private final int maxCommitted;
+    private final boolean keyframes;
+    private final double positionThresholdSquared;
+    private final float rotationThreshold;
+
+    private final String[] worlds;
+    private final double[] x;
+    private final double[] y;
+    private final double[] z;
+    private final float[] yaw;
+    private final float[] pitch;
+    private final byte[] action;
+    private final boolean[] sneaking;
+    private final ItemStack[] itemInHand;
+    private final ItemStack[][] armor;
+    private final int[] ticks;
+
+    private final double[] droppedX;
+    private final double[] droppedY;
+    private final double[] droppedZ;
+    private final float[] droppedYaw;
+    private final float[] droppedPitch;
+    private final int[] droppedTicks;
+    private int dropped = 0;
+
+    private final Location scratch = new Location(null, 0, 0, 0);
+    private int head = 0;
+    private int size = 0;
+    private boolean pending = false;
+    private int clock = 0;
+
+    FrameRingBuffer(int window) {
+        this(window, false, 0, 0);
+    }
+
+    FrameRingBuffer(int window, boolean keyframes, double positionThreshold, float rotationThreshold) {
+        this.window = window;
+        this.keyframes = keyframes;
+        this.capacity = keyframes ? window + 2 : window;
+        this.maxCommitted = window;
+        this.positionThresholdSquared = positionThreshold * positionThreshold;
+        this.rotationThreshold = rotationThreshold;
+        this.worlds = new String[capacity];
+        this.x = new double[capacity];
+        this.y = new double[capacity];
+        this.z = new double[capacity];
+        this.yaw = new float[capacity];
+        this.pitch = new float[capacity];
+        this.action = new byte[capacity];
+        this.sneaking = new boolean[capacity];
+        this.itemInHand = new ItemStack[capacity];
+        this.armor = new ItemStack[capacity][];
+        this.ticks = new int[capacity];
+        int droppedCapacity = keyframes ? MAX_DROPPED : 0;
+        this.droppedX = new double[droppedCapacity];
+        this.droppedY = new double[droppedCapacity];
+        this.droppedZ = new double[droppedCapacity];
+        this.droppedYaw = new float[droppedCapacity];
+        this.droppedPitch = new float[droppedCapacity];
+        this.droppedTicks = new int[droppedCapacity];
+    }
+
+    void record(Player player, PlayerAction currentAction) {
+        int tick = clock++;
+
+        if (!keyframes) {
+            write(head, player, currentAction, tick, size > 0 ? slotBefore(head) : -1);
+            commit();
+            return;
+        }
+
+        if (!pending) {
+            write(head, player, currentAction, tick, size > 0 ? slotBefore(head) : -1);
+            if (size == 0) {
+                commit();
+            } else {
+                pending = true;
+            }
+            return;
+        }
+
+        int next = (head + 1) % capacity;
+        write(next, player, currentAction, tick, head);
+        if (isKeyframe(head, slotBefore(head), next)) {
+            commit();
+            dropped = 0;
+        } else {
+            drop(head);
+            copy(next, head);
+        }
+    }
+
+    List<ReplayFrame> snapshot() {
+        return snapshot(window, false);
+    }
+
+    // Frames of the last `length` ticks with tick 0 exactly `length` ticks before the newest sample,
+    // even if this buffer started later. Buffers filled by the same recording task then share a timeline.
+    List<ReplayFrame> alignedSnapshot(int length) {
+        return snapshot(Math.min(length, window), true);
+    }
+
+    // Ticks covered by the recording so far, up to the window.
+    int recordedTicks() {
+        return Math.min(clock, window);
+    }
+
+    private List<ReplayFrame> snapshot(int length, boolean aligned) {
+        int count = size + (pending ? 1 : 0);
+        int start = (head - size + capacity) % capacity;
+        int windowStart = clock - length;
+
+        int first = 0;
+        while (first < count && ticks[(start + first) % capacity] < windowStart) {
+            first++;
+        }
+
+        List<ReplayFrame> frames = new ArrayList<>(count - first + 1);
+        if (first > 0 && first < count) {
+            // Synthesize the window's first tick from the keyframes on either side of it.
+            ReplayFrame anchor = frameAt((start + first - 1) % capacity, windowStart);
+            ReplayFrame next = frameAt((start + first) % capacity, windowStart);
+            if (next.getTick() > 0 && anchor.getWorldName() != null) {
+                frames.add(ReplayFrame.interpolate(anchor, next, 0));
+            }
+        }
+
+        int base = !aligned && frames.isEmpty() && first < count ? ticks[(start + first) % capacity] : windowStart;
+        for (int i = first; i < count; i++) {
+            int slot = (start + i) % capacity;
+            if (worlds[slot] == null) continue;
+            frames.add(frameAt(slot, base));
+        }
+        return frames;
+    }
+
+    void clear() {
+        head = 0;
+        size = 0;
+        pending = false;
+        clock = 0;
+        dropped = 0;
+        Arrays.fill(worlds, null);
+        Arrays.fill(itemInHand, null);
+        Arrays.fill(armor, null);
+    }
+
+    int size() {
+        return size + (pending ? 1 : 0);
+    }
+
+    private ReplayFrame frameAt(int slot, int base) {
+        return new ReplayFrame(worlds[slot], x[slot], y[slot], z[slot], yaw[slot], pitch[slot],
+                ACTIONS[action[slot]], sneaking[slot], itemInHand[slot], armor[slot], ticks[slot] - base);
+    }
+
+    private void write(int slot, Player player, PlayerAction currentAction, int tick, int previous) {
+        player.getLocation(scratch);
+        World world = scratch.getWorld();
+        worlds[slot] = world != null ? world.getName() : null;
+        x[slot] = scratch.getX();
+        y[slot] = scratch.getY();
+        z[slot] = scratch.getZ();
+        yaw[slot] = scratch.getYaw();
+        pitch[slot] = scratch.getPitch();
+        action[slot] = (byte) currentAction.ordinal();
+        sneaking[slot] = player.isSneaking();
+        ticks[slot] = tick;
+
+        // Equipment references are shared with the previous slot while unchanged and otherwise
+        // resolved through the global ItemPool, so slots only ever hold canonical stacks.
+        ItemStack currentItem = player.getInventory().getItemInMainHand();
+        if (isEmpty(currentItem)) {
+            itemInHand[slot] = null;
+        } else if (previous != -1 && isSimilar(itemInHand[previous], currentItem)) {
+            itemInHand[slot] = itemInHand[previous];
+        } else {
+            itemInHand[slot] = ItemPool.intern(currentItem);
+        }
+
+        ItemStack[] currentArmor = player.getInventory().getArmorContents();
+        if (currentArmor == null) {
+            armor[slot] = null;
+        } else if (previous != -1 && isSameArmor(armor[previous], currentArmor)) {
+            armor[slot] = armor[previous];
+        } else {
+            armor[slot] = ItemPool.intern(currentArmor);
+        }
+    }
+
+    private boolean isKeyframe(int sample, int keyframe, int next) {
+        if (action[sample] != PlayerAction.NONE.ordinal()) return true;
+        if (sneaking[sample] != sneaking[keyframe]) return true;
+        if (itemInHand[sample] != itemInHand[keyframe] || armor[sample] != armor[keyframe]) return true;
+        if (!Objects.equals(worlds[sample], worlds[keyframe])) return true;
+        if (dropped >= MAX_DROPPED) return true;
+
+        // Dropping the sample stretches the segment from the keyframe to the new sample, so every
+        // sample already dropped since the keyframe has to stay within the thresholds as well.
+        if (drifts(x[sample], y[sample], z[sample], yaw[sample], pitch[sample], ticks[sample], keyframe, next)) return true;
+        for (int i = 0; i < dropped; i++) {
+            if (drifts(droppedX[i], droppedY[i], droppedZ[i], droppedYaw[i], droppedPitch[i], droppedTicks[i], keyframe, next)) return true;
+        }
+        return false;
+    }
+
+    // Whether interpolating from the keyframe to next misses the given sample by more than the thresholds.
+    private boolean drifts(double sx, double sy, double sz, float syaw, float spitch, int stick, int keyframe, int next) {
+        double t = (double) (stick - ticks[keyframe]) / (ticks[next] - ticks[keyframe]);
+        double dx = x[keyframe] + (x[next] - x[keyframe]) * t - sx;
+        double dy = y[keyframe] + (y[next] - y[keyframe]) * t - sy;
+        double dz = z[keyframe] + (z[next] - z[keyframe]) * t - sz;
+        if (dx * dx + dy * dy + dz * dz > positionThresholdSquared) return true;
+
+        float yawDelta = wrapDegrees(yaw[next] - yaw[keyframe]);
+        if (Math.abs(wrapDegrees(yaw[keyframe] + (float) (yawDelta * t) - syaw)) > rotationThreshold) return true;
+        return Math.abs(pitch[keyframe] + (pitch[next] - pitch[keyframe]) * t - spitch) > rotationThreshold;
+    }
+
+    private void drop(int slot) {
+        droppedX[dropped] = x[slot];
+        droppedY[dropped] = y[slot];
+        droppedZ[dropped] = z[slot];
+        droppedYaw[dropped] = yaw[slot];
+        droppedPitch[dropped] = pitch[slot];
+        droppedTicks[dropped] = ticks[slot];
+        dropped++;
+    }
+
+    private void commit() {
+        head = (head + 1) % capacity;
+        if (size < maxCommitted) {
+            size++;
+        }
+    }
+
+    private void copy(int from, int to) {
+        worlds[to] = worlds[from];
+        x[to] = x[from];
+        y[to] = y[from];
+        z[to] = z[from];
+        yaw[to] = yaw[from];
+        pitch[to] = pitch[from];
+        action[to] = action[from];
+        sneaking[to] = sneaking[from];
+        itemInHand[to] = itemInHand[from];
+        armor[to] = armor[from];
+        ticks[to] = ticks[from];
+    }
+
+    private int slotBefore(int slot) {
+        return (slot - 1 + capacity) % capacity;
+    }
+
+    private static float wrapDegrees(float degrees) {
+        while (degrees > 180.0f) degrees -= 360.0f;
+        while (degrees < -180.0f) degrees += 360.0f;
+        return degrees;
+    }
+
+    private static boolean isSameArmor(ItemStack[] last, ItemStack[] current) {
+        if (last == null || last.length != current.length) return false;
+        for (int i = 0; i < current.length; i++) {
+            ItemStack c = isEmpty(current[i]) ? null : current[i];
+            ItemStack l = last[i];
+            if ((c == null && l != null) || (c != null && l == null) || (c != null && !isSimilar(c, l))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isEmpty(ItemStack item) {
+        return item == null || item.getType() == Material.AIR;
+    }
+
+    static boolean isSimilar(ItemStack item1, ItemStack item2) {
+        if (item1 == null || item2 == null) return false;
+        if (item1.getType() != item2.getType()) return false;
+        if (item1.getAmount() != item2.getAmount()) return false;
+        if (item1.hasItemMeta() != item2.hasItemMeta()) return false;
+        return item1.isSimilar(item2);
+    }
+}
@@ -0,0 +1,214 @@
+package com.spectralreplay.manager;
+
+import com.spectralreplay.SpectralConfig;
+import com.spectralreplay.SpectralReplay;
+import com.spectralreplay.database.DatabaseManager;
+import com.spectralreplay.model.ReplayFrame;
+import com.spectralreplay.model.ReplayTrack;
+import org.bukkit.Location;
+import org.bukkit.World;
+import org.bukkit.entity.Player;
+import org.bukkit.scheduler.BukkitRunnable;
+import org.bukkit.scheduler.BukkitTask;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.UUID;
+
+// Drives every placed replay from one timer and a queue ordered by when each is next due. A due
+// placement only plays while its chunk is loaded and a player is within the activation radius;
+// otherwise it is looked at again once the nearest player could have walked into range. Frames
+// are decoded once when a placement becomes active and kept until nobody is around any more, or
+// until the replay is deleted.
+// Everything here runs on the main thread except the decode.
+class PlacedReplayScheduler {
+
+    private static final long PERIOD = 10L;
+    // Blocks a player can cover per tick, generously; used to push back checks for far-off placements.
+    private static final double MAX_SPEED = 2.0;
+    private static final long MIN_BACKOFF = 20L;
+    private static final long MAX_BACKOFF = 200L;
+
+    private final SpectralReplay plugin;
+    private final ReplayManager replayManager;
+    private final DatabaseManager databaseManager;
+    private final PriorityQueue<Placement> queue = new PriorityQueue<>(Comparator.comparingLong(placement -> placement.nextDue));
+    private final Map<Integer, Placement> placements = new HashMap<>();
+    private BukkitTask task;
+    private long currentTick = 0;
+
+    PlacedReplayScheduler(SpectralReplay plugin, ReplayManager replayManager, DatabaseManager databaseManager) {
+        this.plugin = plugin;
+        this.replayManager = replayManager;
+        this.databaseManager = databaseManager;
+    }
+
+    void start() {
+        task = new BukkitRunnable() {
+            @Override
+            public void run() {
+                currentTick += PERIOD;
+                runDue();
+            }
+        }.runTaskTimer(plugin, PERIOD, PERIOD);
+    }
+
+    void stop() {
+        if (task != null) {
+            task.cancel();
+            task = null;
+        }
+        queue.clear();
+        placements.clear();
+    }
+
+    void add(DatabaseManager.PlacedReplay placed) {
+        Placement placement = new Placement(placed);
+        Placement previous = placements.put(placed.id, placement);
+        if (previous != null) previous.removed = true;
+        placement.nextDue = currentTick;
+        queue.add(placement);
+    }
+
+    boolean remove(int placedId) {
+        Placement placement = placements.remove(placedId);
+        if (placement == null) return false;
+        // Left in the queue and skipped when it comes up, instead of an O(n) removal.
+        placement.removed = true;
+        placement.frames = null;
+        return true;
+    }
+
+    int getActiveCount() {
+        int active = 0;
+        for (Placement placement : placements.values()) {
+            if (placement.frames != null) active++;
+        }
+        return active;
+    }
+
+    int size() {
+        return placements.size();
+    }
+
+    private void runDue() {
+        SpectralConfig config = plugin.getSpectralConfig();
+        while (!queue.isEmpty() && queue.peek().nextDue <= currentTick) {
+            Placement placement = queue.poll();
+            if (placement.removed) continue;
+
+            double nearest = nearestPlayer(placement.placed.location);
+            if (nearest > config.placedActivationRadius) {
+                // Inactive: drop the frames and wait until someone could be in range.
+                placement.frames = null;
+                long backoff = Double.isInfinite(nearest) ? MAX_BACKOFF
+                        : (long) ((nearest - config.placedActivationRadius) / MAX_SPEED);
+                reschedule(placement, Math.max(MIN_BACKOFF, Math.min(MAX_BACKOFF, backoff)));
+                continue;
+            }
+
+            // Resident frames are only trusted while the index still holds the replay; otherwise it
+            // is read again, which finds nothing once the replay has been deleted.
+            if (placement.frames != null && !databaseManager.isReplayIndexed(placement.placed.replayId)) {
+                placement.frames = null;
+            }
+
+            if (placement.frames != null) {
+                play(placement);
+                reschedule(placement, config.placedInterval);
+            } else {
+                load(placement);
+            }
+        }
+    }
+
+    // Distance to the closest player in the placement's world, or infinity if its chunk is not
+    // loaded or the world is empty.
+    private double nearestPlayer(Location location) {
+        World world = location.getWorld();
+        if (world == null || !world.isChunkLoaded(location.getBlockX() >> 4, location.getBlockZ() >> 4)) {
+            return Double.POSITIVE_INFINITY;
+        }
+        double nearest = Double.POSITIVE_INFINITY;
+        for (Player player : world.getPlayers()) {
+            double distance = player.getLocation().distanceSquared(location);
+            if (distance < nearest) nearest = distance;
+        }
+        return Math.sqrt(nearest);
+    }
+
+    private void reschedule(Placement placement, long delay) {
+        placement.nextDue = currentTick + delay;
+        queue.add(placement);
+    }
+
+    // Decodes the whole replay off the main thread, then plays it and puts the placement back in
+    // the queue. It stays out of the queue while loading, so it is never loaded twice.
+    private void load(Placement placement) {
+        int replayId = placement.placed.replayId;
+        databaseManager.supplyAsync(() -> {
+                    DatabaseManager.ReplayData replay = databaseManager.getReplayById(replayId);
+                    if (replay == null) return null;
+                    return new Decoded(replay, databaseManager.openTracks(replay));
+                })
+                .whenCompleteAsync((decoded, error) -> {
+                    if (placement.removed) return;
+                    if (error != null) {
+                        plugin.getLogger().warning("Error loading placed replay " + placement.placed.id + ": " + error.getMessage());
+                    } else if (decoded != null && !decoded.frames.isEmpty() && !decoded.frames.get(0).isEmpty()) {
+                        placement.replay = decoded.replay;
+                        placement.uuids = decoded.uuids;
+                        placement.frames = decoded.frames;
+                        play(placement);
+                    }
+                    reschedule(placement, plugin.getSpectralConfig().placedInterval);
+                }, databaseManager.mainThreadExecutor());
+    }
+
+    private void play(Placement placement) {
+        List<ReplayTrack> tracks = new ArrayList<>(placement.frames.size());
+        for (int i = 0; i < placement.frames.size(); i++) {
+            tracks.add(ReplayTrack.of(placement.uuids.get(i), placement.frames.get(i)));
+        }
+        try {
+            replayManager.playPlacedReplay(placement.replay, tracks, placement.placed.location);
+        } catch (Exception e) {
+            plugin.getLogger().warning("Error playing placed replay " + placement.placed.id + ": " + e.getMessage());
+        }
+    }
+
+    private static class Placement {
+        final DatabaseManager.PlacedReplay placed;
+        long nextDue;
+        boolean removed = false;
+        DatabaseManager.ReplayData replay;
+        List<UUID> uuids;
+        List<List<ReplayFrame>> frames;
+
+        Placement(DatabaseManager.PlacedReplay placed) {
+            this.placed = placed;
+        }
+    }
+
+    private static class Decoded {
+        final DatabaseManager.ReplayData replay;
+        final List<UUID> uuids = new ArrayList<>();
+        final List<List<ReplayFrame>> frames = new ArrayList<>();
+
+        Decoded(DatabaseManager.ReplayData replay, List<ReplayTrack> tracks) {
+            this.replay = replay;
+            for (ReplayTrack track : tracks) {
+                List<ReplayFrame> trackFrames = new ArrayList<>();
+                while (track.frames.hasNext()) {
+                    trackFrames.add(track.frames.next());
+                }
+                uuids.add(track.uuid);
+                frames.add(trackFrames);
+            }
+        }
+    }
+}
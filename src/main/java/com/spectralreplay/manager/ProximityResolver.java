@@ -0,0 +1,139 @@
+package com.spectralreplay.manager;
+
+import com.spectralreplay.database.DatabaseManager;
+import org.bukkit.Location;
+import org.bukkit.World;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+// Answers one proximity check for many players with as few lookups as possible. Players whose
+// search boxes overlap are clustered per world, each cluster's bounding box is looked up once,
+// and the hits are handed to every player whose own box contains them.
+class ProximityResolver {
+
+    // Clusters stop growing past this width, so a long line of players does not become one box
+    // covering mostly empty ground.
+    private static final double MAX_CLUSTER_SPAN = 64.0;
+
+    private final DatabaseManager databaseManager;
+
+    ProximityResolver(DatabaseManager databaseManager) {
+        this.databaseManager = databaseManager;
+    }
+
+    // Every key maps to the replays within radius of its location on each axis, the same box
+    // getNearbyReplayMeta() uses.
+    <K> Map<K, List<DatabaseManager.ReplayData>> resolve(Map<K, Location> players, double radius) {
+        Map<K, List<DatabaseManager.ReplayData>> result = new HashMap<>();
+        Map<World, List<Member<K>>> byWorld = new LinkedHashMap<>();
+        for (Map.Entry<K, Location> entry : players.entrySet()) {
+            Location location = entry.getValue();
+            if (location.getWorld() == null) continue;
+            byWorld.computeIfAbsent(location.getWorld(), w -> new ArrayList<>()).add(new Member<>(entry.getKey(), location));
+        }
+
+        for (Map.Entry<World, List<Member<K>>> entry : byWorld.entrySet()) {
+            for (Cluster<K> cluster : cluster(entry.getValue(), radius)) {
+                List<DatabaseManager.ReplayData> hits = databaseManager.getReplayMetaInBox(entry.getKey(),
+                        cluster.xMin, cluster.yMin, cluster.zMin, cluster.xMax, cluster.yMax, cluster.zMax, null);
+                for (Member<K> member : cluster.members) {
+                    List<DatabaseManager.ReplayData> own = new ArrayList<>();
+                    for (DatabaseManager.ReplayData hit : hits) {
+                        Location at = hit.location;
+                        if (Math.abs(at.getX() - member.x) <= radius && Math.abs(at.getY() - member.y) <= radius
+                                && Math.abs(at.getZ() - member.z) <= radius) {
+                            own.add(hit);
+                        }
+                    }
+                    result.put(member.key, own);
+                }
+            }
+        }
+        return result;
+    }
+
+    // Sweeps the players by x; a cluster is closed once the sweep has passed its far edge.
+    private static <K> List<Cluster<K>> cluster(List<Member<K>> members, double radius) {
+        members.sort(Comparator.comparingDouble(member -> member.x));
+        List<Cluster<K>> clusters = new ArrayList<>();
+        List<Cluster<K>> open = new ArrayList<>();
+        for (Member<K> member : members) {
+            double xMin = member.x - radius;
+            Iterator<Cluster<K>> iterator = open.iterator();
+            Cluster<K> target = null;
+            while (iterator.hasNext()) {
+                Cluster<K> cluster = iterator.next();
+                if (cluster.xMax < xMin) {
+                    iterator.remove();
+                } else if (target == null && cluster.accepts(member, radius)) {
+                    target = cluster;
+                }
+            }
+            if (target == null) {
+                target = new Cluster<>();
+                clusters.add(target);
+                open.add(target);
+            }
+            target.add(member, radius);
+        }
+        return clusters;
+    }
+
+    private static class Member<K> {
+        final K key;
+        final double x;
+        final double y;
+        final double z;
+
+        Member(K key, Location location) {
+            this.key = key;
+            this.x = location.getX();
+            this.y = location.getY();
+            this.z = location.getZ();
+        }
+    }
+
+    private static class Cluster<K> {
+        final List<Member<K>> members = new ArrayList<>();
+        double xMin;
+        double yMin;
+        double zMin;
+        double xMax;
+        double yMax;
+        double zMax;
+
+        boolean accepts(Member<K> member, double radius) {
+            double bxMin = member.x - radius, bxMax = member.x + radius;
+            double byMin = member.y - radius, byMax = member.y + radius;
+            double bzMin = member.z - radius, bzMax = member.z + radius;
+            if (bxMin > xMax || bxMax < xMin || byMin > yMax || byMax < yMin || bzMin > zMax || bzMax < zMin) return false;
+            return Math.max(xMax, bxMax) - Math.min(xMin, bxMin) <= MAX_CLUSTER_SPAN
+                    && Math.max(zMax, bzMax) - Math.min(zMin, bzMin) <= MAX_CLUSTER_SPAN;
+        }
+
+        void add(Member<K> member, double radius) {
+            if (members.isEmpty()) {
+                xMin = member.x - radius;
+                yMin = member.y - radius;
+                zMin = member.z - radius;
+                xMax = member.x + radius;
+                yMax = member.y + radius;
+                zMax = member.z + radius;
+            } else {
+                xMin = Math.min(xMin, member.x - radius);
+                yMin = Math.min(yMin, member.y - radius);
+                zMin = Math.min(zMin, member.z - radius);
+                xMax = Math.max(xMax, member.x + radius);
+                yMax = Math.max(yMax, member.y + radius);
+                zMax = Math.max(zMax, member.z + radius);
+            }
+            members.add(member);
+        }
+    }
+}
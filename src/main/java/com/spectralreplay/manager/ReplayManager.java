@@ -1,9 +1,13 @@
 package com.spectralreplay.manager;
 
+import com.spectralreplay.SpectralConfig;
 import com.spectralreplay.SpectralReplay;
 import com.spectralreplay.database.DatabaseManager;
+import com.spectralreplay.model.FrameCursor;
+import com.spectralreplay.model.ItemPool;
 import com.spectralreplay.model.PlayerAction;
 import com.spectralreplay.model.ReplayFrame;
+import com.spectralreplay.model.ReplayTrack;
 import com.spectralreplay.model.ReplayType;
 import net.citizensnpcs.api.CitizensAPI;
 import net.citizensnpcs.api.npc.NPC;
@@ -24,17 +28,21 @@ import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.ThreadLocalRandom;
+import java.util.logging.Level;
 
 public class ReplayManager {
 
     private final SpectralReplay plugin;
     private final DatabaseManager databaseManager;
-    private final Map<UUID, Deque<ReplayFrame>> recordings = new ConcurrentHashMap<>();
+    private final ProximityResolver proximityResolver;
+    private final Map<UUID, FrameRingBuffer> recordings = new ConcurrentHashMap<>();
     private final Map<UUID, PlayerAction> currentActions = new ConcurrentHashMap<>();
     private final Set<Integer> activeReplays = ConcurrentHashMap.newKeySet();
-    private final Map<Integer, org.bukkit.scheduler.BukkitTask> placedReplayTasks = new ConcurrentHashMap<>();
-    private final Map<Integer, Long> proximityCooldowns = new ConcurrentHashMap<>();
-    private final Map<UUID, Long> respawnProtections = new ConcurrentHashMap<>();
+    private final PlacedReplayScheduler placedReplays;
+    private final ReplayPrefetcher prefetcher;
+    // Both expire on their own as the wheel advances; membership means "still cooling down".
+    private final ExpiryWheel proximityCooldowns = new ExpiryWheel(250L, 1024);
+    private final ExpiryWheel respawnProtections = new ExpiryWheel(250L, 1024);
     private final Queue<NPC> npcPool = new ConcurrentLinkedQueue<>();
     private final Set<NPC> activeNPCs = ConcurrentHashMap.newKeySet();
     private long globalReplayCooldownUntil = 0;
@@ -46,6 +54,9 @@ public class ReplayManager {
     public ReplayManager(SpectralReplay plugin, DatabaseManager databaseManager) {
         this.plugin = plugin;
         this.databaseManager = databaseManager;
+        this.proximityResolver = new ProximityResolver(databaseManager);
+        this.placedReplays = new PlacedReplayScheduler(plugin, this, databaseManager);
+        this.prefetcher = new ReplayPrefetcher(plugin, databaseManager);
         cleanupLeftoverNPCs();
     }
 
@@ -84,8 +95,7 @@ public class ReplayManager {
     }
 
     public void addRespawnProtection(Player player) {
-        long duration = plugin.getConfig().getLong("respawn-protection-duration", 10) * 1000;
-        respawnProtections.put(player.getUniqueId(), System.currentTimeMillis() + duration);
+        respawnProtections.add(player.getUniqueId(), plugin.getSpectralConfig().respawnProtectionMillis);
     }
 
     public void startRecording() {
@@ -104,9 +114,12 @@ public class ReplayManager {
     }
 
     public void startRandomReplayTask() {
+        startExpiryTask();
         scheduleNextReplay(ReplayType.DEATH);
+        placedReplays.start();
         loadPlacedReplays();
         startProximityCheckTask();
+        prefetcher.start();
     }
 
     public void resetCooldowns() {
@@ -114,31 +127,39 @@ public class ReplayManager {
         globalReplayCooldownUntil = 0;
     }
 
+    // Moves the cooldown wheels forward; the only place their clock is read.
+    private void startExpiryTask() {
+        new BukkitRunnable() {
+            @Override
+            public void run() {
+                long now = System.currentTimeMillis();
+                proximityCooldowns.advanceTo(now);
+                respawnProtections.advanceTo(now);
+            }
+        }.runTaskTimerAsynchronously(plugin, 0L, 5L);
+    }
+
     private void startProximityCheckTask() {
         new BukkitRunnable() {
             @Override
             public void run() {
                 try {
-                    if (!plugin.getConfig().getBoolean("proximity-replay.enabled", true)) return;
+                    SpectralConfig config = plugin.getSpectralConfig();
+                    if (!config.proximityEnabled) return;
 
-                    double radius = plugin.getConfig().getDouble("proximity-replay.radius", 5.0);
-                    long cooldownSeconds = plugin.getConfig().getLong("proximity-replay.cooldown", 600);
-                    long cooldownMillis = cooldownSeconds * 1000;
+                    double radius = config.proximityRadius;
+                    long cooldownMillis = config.proximityCooldownMillis;
                     
                     List<PlayerContext> candidates = new ArrayList<>();
 
                     for (Player player : Bukkit.getOnlinePlayers()) {
                          if (player.getGameMode() == GameMode.SPECTATOR) continue;
 
-                         if (respawnProtections.containsKey(player.getUniqueId())) {
-                             if (System.currentTimeMillis() < respawnProtections.get(player.getUniqueId())) {
-                                 continue;
-                             } else {
-                                 respawnProtections.remove(player.getUniqueId());
-                             }
-                         }
+                         if (respawnProtections.contains(player.getUniqueId())) continue;
                          
-                         candidates.add(new PlayerContext(player.getUniqueId(), player.getLocation(), player.getWorld().getTime()));
+                         PlayerContext ctx = new PlayerContext(player.getUniqueId(), player.getLocation(), player.getWorld().getTime());
+                         if (triggerPrefetched(ctx, radius, cooldownMillis)) continue;
+                         candidates.add(ctx);
                     }
 
                     if (candidates.isEmpty()) return;
@@ -146,8 +167,23 @@ public class ReplayManager {
                     new BukkitRunnable() {
                         @Override
                         public void run() {
+                            // One lookup per group of nearby players rather than one per player.
+                            Map<PlayerContext, Location> locations = new LinkedHashMap<>();
                             for (PlayerContext ctx : candidates) {
-                                processProximityForPlayer(ctx, radius, cooldownMillis);
+                                locations.put(ctx, ctx.location);
+                            }
+                            Map<PlayerContext, List<DatabaseManager.ReplayData>> nearby;
+                            try {
+                                nearby = proximityResolver.resolve(locations, radius);
+                            } catch (Exception e) {
+                                plugin.getLogger().warning("Error looking up nearby replays: " + e.getMessage());
+                                return;
+                            }
+                            for (PlayerContext ctx : candidates) {
+                                List<DatabaseManager.ReplayData> replays = nearby.get(ctx);
+                                if (replays != null && !replays.isEmpty()) {
+                                    processProximityForPlayer(ctx, replays, cooldownMillis);
+                                }
                             }
                         }
                     }.runTaskAsynchronously(plugin);
@@ -157,32 +193,58 @@ public class ReplayManager {
             }
         }.runTaskTimer(plugin, 100L, 20L);
     }
+
     
-    private void processProximityForPlayer(PlayerContext ctx, double radius, long cooldownMillis) {
+    // Plays a replay the prefetcher already decoded without leaving the main thread, so the ghost
+    // appears in the tick the player reaches it. False sends the player through the async lookup.
+    private boolean triggerPrefetched(PlayerContext ctx, double radius, long cooldownMillis) {
+        int maxPlays = plugin.getSpectralConfig().maxPlaysPerReplay;
+        for (ReplayPrefetcher.Prefetched prefetched : prefetcher.near(ctx.location, radius)) {
+            DatabaseManager.ReplayData replay = prefetched.replay;
+            if (!isProximityEligible(ctx, replay, maxPlays) || proximityCooldowns.contains(replay.id)) continue;
+
+            List<ReplayTrack> tracks = prefetcher.openTracks(prefetched);
+            if (tracks == null) continue;
+            try {
+                playGhostReplayInternal(replay, tracks, null, prefetched.partner);
+            } catch (Exception e) {
+                plugin.getLogger().warning("Error in playGhostReplayInternal (sync): " + e.getMessage());
+            }
+            proximityCooldowns.add(replay.id, cooldownMillis);
+            for (DatabaseManager.ReplayData member : prefetched.match) {
+                proximityCooldowns.add(member.id, cooldownMillis);
+            }
+            return true;
+        }
+        return false;
+    }
+
+    private boolean isProximityEligible(PlayerContext ctx, DatabaseManager.ReplayData replay, int maxPlays) {
+        if (replay.type != ReplayType.DEATH && replay.type != ReplayType.PVP) return false;
+
+        if (replay.type == ReplayType.DEATH && (ctx.worldTime < GAME_TIME_NIGHT_START || ctx.worldTime > GAME_TIME_NIGHT_END)) return false;
+
+        if (maxPlays != -1 && databaseManager.getPlayCount(replay) >= maxPlays) return false;
+
+        return !activeReplays.contains(replay.id);
+    }
+
+    private void processProximityForPlayer(PlayerContext ctx, List<DatabaseManager.ReplayData> nearbyReplays, long cooldownMillis) {
         try {
-            List<DatabaseManager.ReplayData> nearbyReplays = databaseManager.getNearbyReplayMeta(ctx.location, radius, null);
-            int maxPlays = plugin.getConfig().getInt("max-plays-per-replay", 5);
+            int maxPlays = plugin.getSpectralConfig().maxPlaysPerReplay;
             
             for (DatabaseManager.ReplayData replay : nearbyReplays) {
-                if (replay.type != ReplayType.DEATH && replay.type != ReplayType.PVP) continue;
-                
-                if (replay.type == ReplayType.DEATH && (ctx.worldTime < GAME_TIME_NIGHT_START || ctx.worldTime > GAME_TIME_NIGHT_END)) continue;
-                
-                if (maxPlays != -1 && replay.playCount >= maxPlays) continue;
-                
-                if (activeReplays.contains(replay.id)) continue;
+                if (!isProximityEligible(ctx, replay, maxPlays)) continue;
 
-                long lastPlayed = proximityCooldowns.getOrDefault(replay.id, 0L);
-
-                if (System.currentTimeMillis() - lastPlayed > cooldownMillis) {
+                if (!proximityCooldowns.contains(replay.id)) {
                     playGhostReplay(replay);
-                    proximityCooldowns.put(replay.id, System.currentTimeMillis());
+                    proximityCooldowns.add(replay.id, cooldownMillis);
                     
                     if (replay.type == ReplayType.PVP) {
                         try {
-                            List<DatabaseManager.ReplayData> partners = databaseManager.getReplaysByTimestamp(replay.timestamp);
+                            List<DatabaseManager.ReplayData> partners = databaseManager.getMatchReplays(replay.matchId);
                             for (DatabaseManager.ReplayData partner : partners) {
-                                proximityCooldowns.put(partner.id, System.currentTimeMillis());
+                                proximityCooldowns.add(partner.id, cooldownMillis);
                             }
                         } catch (Exception e) {
                             plugin.getLogger().warning("Failed to cooldown partner replays: " + e.getMessage());
@@ -210,61 +272,46 @@ public class ReplayManager {
     }
 
     private void loadPlacedReplays() {
-        List<DatabaseManager.PlacedReplay> placedReplays = databaseManager.getAllPlacedReplays();
-        for (DatabaseManager.PlacedReplay placed : placedReplays) {
-            startPlacedReplayTask(placed);
-        }
+        databaseManager.getAllPlacedReplaysAsync()
+                .thenAcceptAsync(placedReplays -> {
+                    for (DatabaseManager.PlacedReplay placed : placedReplays) {
+                        startPlacedReplayTask(placed);
+                    }
+                }, databaseManager.mainThreadExecutor())
+                .exceptionally(e -> {
+                    plugin.getLogger().warning("Error loading placed replays: " + e.getMessage());
+                    return null;
+                });
     }
 
     public void startPlacedReplayTask(DatabaseManager.PlacedReplay placed) {
-        org.bukkit.scheduler.BukkitTask task = new BukkitRunnable() {
-            @Override
-            public void run() {
-                new BukkitRunnable() {
-                    @Override
-                    public void run() {
-                        try {
-                            DatabaseManager.ReplayData data = databaseManager.getReplayById(placed.replayId);
-                            if (data != null) {
-                                new BukkitRunnable() {
-                                    @Override
-                                    public void run() {
-                                        try {
-                                            playGhostReplay(data, placed.location);
-                                        } catch (Exception e) {
-                                            plugin.getLogger().warning("Error playing placed replay: " + e.getMessage());
-                                        }
-                                    }
-                                }.runTask(plugin);
-                            }
-                        } catch (Exception e) {
-                            plugin.getLogger().warning("Error fetching placed replay data: " + e.getMessage());
-                        }
-                    }
-                }.runTaskAsynchronously(plugin);
-            }
-        }.runTaskTimer(plugin, 100L, 600L);
-        
-        placedReplayTasks.put(placed.id, task);
+        placedReplays.add(placed);
+    }
+
+    public int getPrefetchedCount() {
+        return prefetcher.size();
+    }
+
+    public long getPrefetchHits() {
+        return prefetcher.getHits();
     }
 
     public boolean removePlacedReplay(int id) {
-        if (placedReplayTasks.containsKey(id)) {
-            placedReplayTasks.get(id).cancel();
-            placedReplayTasks.remove(id);
+        if (placedReplays.remove(id)) {
             databaseManager.deletePlacedReplay(id);
             return true;
         }
         return false;
     }
 
+    // Called by the placed replay scheduler with tracks built from its resident frames.
+    void playPlacedReplay(DatabaseManager.ReplayData replayData, List<ReplayTrack> tracks, Location origin) {
+        playGhostReplayInternal(replayData, tracks, origin, null);
+    }
+
     private void scheduleNextReplay(ReplayType type) {
-        long minDelay, maxDelay;
-        
-        minDelay = plugin.getConfig().getLong("min-delay", 1200L);
-        maxDelay = plugin.getConfig().getLong("max-delay", 3600L);
-        
-        long delay = ThreadLocalRandom.current().nextLong(minDelay, maxDelay + 1);
+        SpectralConfig config = plugin.getSpectralConfig();
+        long delay = ThreadLocalRandom.current().nextLong(config.minDelay, config.maxDelay + 1);
 
         new BukkitRunnable() {
             @Override
@@ -309,12 +356,12 @@ public class ReplayManager {
 
                         if (nearbyReplays.isEmpty()) continue;
                         
-                        int maxPlays = plugin.getConfig().getInt("max-plays-per-replay", 5);
+                        int maxPlays = plugin.getSpectralConfig().maxPlaysPerReplay;
 
                         List<DatabaseManager.ReplayData> availableReplays = new ArrayList<>();
                         for (DatabaseManager.ReplayData r : nearbyReplays) {
                             if (activeReplays.contains(r.id)) continue;
-                            if (maxPlays != -1 && r.playCount >= maxPlays) continue;
+                            if (maxPlays != -1 && databaseManager.getPlayCount(r) >= maxPlays) continue;
                             availableReplays.add(r);
                         }
 
@@ -335,58 +382,14 @@ public class ReplayManager {
     private void recordFrame(Player player) {
         try {
             UUID uuid = player.getUniqueId();
-            Deque<ReplayFrame> buffer = recordings.computeIfAbsent(uuid, k -> new ArrayDeque<>(MAX_FRAMES));
+            FrameRingBuffer buffer = recordings.computeIfAbsent(uuid,
+                    k -> {
+                        SpectralConfig config = plugin.getSpectralConfig();
+                        return new FrameRingBuffer(MAX_FRAMES, config.keyframeRecording, config.keyframePositionThreshold, config.keyframeRotationThreshold);
+                    });
 
-            Location loc = player.getLocation();
             PlayerAction action = currentActions.getOrDefault(uuid, PlayerAction.NONE);
-            boolean isSneaking = player.isSneaking();
-            
-            ItemStack currentItem = player.getInventory().getItemInMainHand();
-            ItemStack[] currentArmor = player.getInventory().getArmorContents();
-            
-            ReplayFrame lastFrame = buffer.peekLast();
-            
-            ItemStack savedItem = null;
-            if (currentItem != null && currentItem.getType() != Material.AIR) {
-                if (lastFrame != null && isSimilar(lastFrame.getItemInHand(), currentItem)) {
-                    savedItem = lastFrame.getItemInHand();
-                } else {
-                    savedItem = currentItem.clone();
-                }
-            }
-            
-            ItemStack[] savedArmor = null;
-            if (currentArmor != null) {
-                boolean sameArmor = false;
-                if (lastFrame != null && lastFrame.getArmor() != null && lastFrame.getArmor().length == currentArmor.length) {
-                    sameArmor = true;
-                    for (int i = 0; i < currentArmor.length; i++) {
-                        ItemStack c = currentArmor[i];
-                        ItemStack l = lastFrame.getArmor()[i];
-                        if ((c == null && l != null) || (c != null && l == null) || (c != null && !isSimilar(c, l))) {
-                            sameArmor = false;
-                            break;
-                        }
-                    }
-                }
-                
-                if (sameArmor) {
-                    savedArmor = lastFrame.getArmor();
-                } else {
-                    savedArmor = new ItemStack[currentArmor.length];
-                    for (int i = 0; i < currentArmor.length; i++) {
-                        savedArmor[i] = currentArmor[i] != null ? currentArmor[i].clone() : null;
-                    }
-                }
-            }
-
-            ReplayFrame frame = new ReplayFrame(loc, action, isSneaking, savedItem, savedArmor);
-
-            buffer.addLast(frame);
-
-            if (buffer.size() > MAX_FRAMES) {
-                buffer.removeFirst();
-            }
+            buffer.record(player, action);
 
             currentActions.put(uuid, PlayerAction.NONE);
         } catch (Exception e) {
@@ -394,14 +397,6 @@ public class ReplayManager {
         }
     }
 
-    private boolean isSimilar(ItemStack item1, ItemStack item2) {
-        if (item1 == null || item2 == null) return false;
-        if (item1.getType() != item2.getType()) return false;
-        if (item1.getAmount() != item2.getAmount()) return false;
-        if (item1.hasItemMeta() != item2.hasItemMeta()) return false;
-        return item1.isSimilar(item2);
-    }
-
     public void setPlayerAction(Player player, PlayerAction action) {
         if (action == PlayerAction.SWING_HAND) {
             PlayerAction current = currentActions.get(player.getUniqueId());
@@ -413,14 +408,44 @@ public class ReplayManager {
     }
 
     public List<ReplayFrame> getSnapshot(Player player) {
-        Deque<ReplayFrame> buffer = recordings.get(player.getUniqueId());
-        if (buffer == null) return Collections.emptyList();
-        return new ArrayList<>(buffer);
+        FrameRingBuffer buffer = recordings.get(player.getUniqueId());
+        if (buffer == null || buffer.size() == 0) return Collections.emptyList();
+        return buffer.snapshot();
     }
 
+    // Both sides of the fight go into one record, listed under the victim. The buffers are filled by
+    // the same recording task, so aligning their snapshots on the newest sample puts them on one timeline.
     public void savePVPReplay(Player victim, Player killer, long timestamp) {
-        saveReplay(victim, ReplayType.PVP, timestamp);
-        saveReplay(killer, ReplayType.PVP, timestamp);
+        FrameRingBuffer victimBuffer = recordings.get(victim.getUniqueId());
+        FrameRingBuffer killerBuffer = recordings.get(killer.getUniqueId());
+        int length = Math.max(victimBuffer != null ? victimBuffer.recordedTicks() : 0,
+                killerBuffer != null ? killerBuffer.recordedTicks() : 0);
+
+        List<ReplayTrack> tracks = new ArrayList<>(2);
+        if (victimBuffer != null && victimBuffer.size() > 0) {
+            tracks.add(ReplayTrack.of(victim.getUniqueId(), victimBuffer.alignedSnapshot(length)));
+        }
+        if (killerBuffer != null && killerBuffer.size() > 0) {
+            tracks.add(ReplayTrack.of(killer.getUniqueId(), killerBuffer.alignedSnapshot(length)));
+        }
+        resetRecording(victim);
+        resetRecording(killer);
+
+        if (tracks.isEmpty()) {
+            plugin.getLogger().warning("Skipping PVP replay save for " + victim.getName() + " and " + killer.getName() + " - No frames recorded.");
+            return;
+        }
+
+        UUID owner = tracks.get(0).uuid;
+        Location location = owner.equals(victim.getUniqueId()) ? victim.getLocation() : killer.getLocation();
+        databaseManager.saveTracksAsync(owner, location, tracks, ReplayType.PVP, timestamp, 0)
+                .thenAccept(id -> {
+                    if (id != -1) proximityCooldowns.add(id, plugin.getSpectralConfig().proximityCooldownMillis);
+                })
+                .exceptionally(e -> {
+                    plugin.getLogger().log(Level.SEVERE, "Could not save PVP replay", e);
+                    return null;
+                });
     }
 
     public void saveDeathReplay(Player player, ReplayType type) {
@@ -430,19 +455,26 @@ public class ReplayManager {
     private void saveReplay(Player player, ReplayType type, long timestamp) {
         List<ReplayFrame> frames = getSnapshot(player);
         if (!frames.isEmpty()) {
-            new BukkitRunnable() {
-                @Override
-                public void run() {
-                    int id = databaseManager.saveReplay(player.getUniqueId(), player.getLocation(), frames, type, timestamp);
-                    if (id != -1) {
-                        proximityCooldowns.put(id, System.currentTimeMillis());
-                    }
-                }
-            }.runTaskAsynchronously(plugin);
+            databaseManager.saveReplayAsync(player.getUniqueId(), player.getLocation(), frames, type, timestamp, 0)
+                    .thenAccept(id -> {
+                        if (id != -1) proximityCooldowns.add(id, plugin.getSpectralConfig().proximityCooldownMillis);
+                    })
+                    .exceptionally(e -> {
+                        plugin.getLogger().log(Level.SEVERE, "Could not save replay", e);
+                        return null;
+                    });
         } else {
             plugin.getLogger().warning("Skipping replay save for " + player.getName() + " (Type: " + type + ") - No frames recorded.");
         }
-        clearRecording(player);
+        resetRecording(player);
+    }
+
+    private void resetRecording(Player player) {
+        FrameRingBuffer buffer = recordings.get(player.getUniqueId());
+        if (buffer != null) {
+            buffer.clear();
+        }
+        currentActions.remove(player.getUniqueId());
     }
 
     public void clearRecording(Player player) {
@@ -455,69 +487,73 @@ public class ReplayManager {
     }
 
     public void playGhostReplay(DatabaseManager.ReplayData replayData, Location origin) {
-        if (replayData.frames == null || (replayData.type == ReplayType.PVP && origin == null)) {
-            new BukkitRunnable() {
-                @Override
-                public void run() {
-                    try {
-                        List<ReplayFrame> frames = replayData.frames;
-                        if (frames == null) {
-                            frames = databaseManager.getReplayFrames(replayData.id);
-                        }
-                        
-                        if (frames.isEmpty()) return;
-
-                        DatabaseManager.ReplayData fullData = new DatabaseManager.ReplayData(
-                                replayData.id, replayData.uuid, replayData.location, frames, replayData.type, replayData.timestamp, replayData.playCount
-                        );
-
-                        DatabaseManager.ReplayData partnerData = null;
-                        if (fullData.type == ReplayType.PVP && origin == null) {
-                             List<DatabaseManager.ReplayData> partners = databaseManager.getReplaysByTimestamp(fullData.timestamp);
-                             for (DatabaseManager.ReplayData r : partners) {
-                                 if (r.id != fullData.id && !r.uuid.equals(fullData.uuid)) {
-                                     partnerData = r;
-                                     break;
-                                 }
-                             }
-                             if (partnerData == null) {
-                                 plugin.getLogger().warning("Could not find partner replay for PVP replay ID: " + fullData.id + " (Timestamp: " + fullData.timestamp + ")");
-                             }
-                        }
-                        
-                        final DatabaseManager.ReplayData finalPartner = partnerData;
-
-                        new BukkitRunnable() {
-                            @Override
-                            public void run() {
-                                try {
-                                    playGhostReplayInternal(fullData, origin, finalPartner);
-                                } catch (Exception e) {
-                                    plugin.getLogger().warning("Error in playGhostReplayInternal: " + e.getMessage());
-                                }
-                            }
-                        }.runTask(plugin);
-                    } catch (Exception e) {
-                        plugin.getLogger().warning("Error preparing ghost replay: " + e.getMessage());
-                    }
-                }
-            }.runTaskAsynchronously(plugin);
-            return;
-        }
-        
-        new BukkitRunnable() {
-            @Override
-            public void run() {
+        if (replayData.frames != null && !(replayData.type == ReplayType.PVP && origin == null)) {
+            List<ReplayTrack> tracks = Collections.singletonList(ReplayTrack.of(replayData.uuid, replayData.frames));
+            databaseManager.mainThreadExecutor().execute(() -> {
                 try {
-                    playGhostReplayInternal(replayData, origin, null);
+                    playGhostReplayInternal(replayData, tracks, origin, null);
                 } catch (Exception e) {
                     plugin.getLogger().warning("Error in playGhostReplayInternal (sync): " + e.getMessage());
                 }
+            });
+            return;
+        }
+
+        // Tracks are loaded and decoded on the database executor, the ghosts spawn on the main thread.
+        databaseManager.supplyAsync(() -> prepareReplay(replayData, origin))
+                .thenAcceptAsync(prepared -> {
+                    if (prepared != null) {
+                        playGhostReplayInternal(replayData, prepared.tracks, origin, prepared.partner);
+                    }
+                }, databaseManager.mainThreadExecutor())
+                .exceptionally(e -> {
+                    plugin.getLogger().warning("Error preparing ghost replay: " + e.getMessage());
+                    return null;
+                });
+    }
+
+    // Opening the tracks resolves the item dictionary and decodes only the first frame of each.
+    private PreparedReplay prepareReplay(DatabaseManager.ReplayData replayData, Location origin) {
+        List<ReplayTrack> tracks = replayData.frames != null
+                ? new ArrayList<>(Collections.singletonList(ReplayTrack.of(replayData.uuid, replayData.frames)))
+                : databaseManager.openTracks(replayData);
+        if (tracks.isEmpty() || !tracks.get(0).frames.hasNext()) return null;
+        for (ReplayTrack track : tracks) {
+            track.frames.hasNext();
+        }
+
+        // Fights saved before multi-track records are two rows linked by a match id.
+        DatabaseManager.ReplayData partnerData = null;
+        if (replayData.type == ReplayType.PVP && origin == null && tracks.size() == 1 && replayData.matchId != 0) {
+            List<DatabaseManager.ReplayData> partners = databaseManager.getMatchReplays(replayData.matchId);
+            for (DatabaseManager.ReplayData r : partners) {
+                if (r.id != replayData.id && !r.uuid.equals(replayData.uuid)) {
+                    partnerData = r;
+                    break;
+                }
             }
-        }.runTask(plugin);
+            if (partnerData == null) {
+                plugin.getLogger().warning("Could not find partner replay for PVP replay ID: " + replayData.id + " (Match: " + replayData.matchId + ")");
+            } else {
+                FrameCursor partnerCursor = databaseManager.openFrameCursor(partnerData);
+                partnerCursor.hasNext();
+                tracks.add(new ReplayTrack(partnerData.uuid, partnerCursor));
+            }
+        }
+        return new PreparedReplay(tracks, partnerData);
     }
 
-    private void playGhostReplayInternal(DatabaseManager.ReplayData replayData, Location origin, DatabaseManager.ReplayData preloadedPartner) {
+    private static class PreparedReplay {
+        final List<ReplayTrack> tracks;
+        final DatabaseManager.ReplayData partner;
+
+        PreparedReplay(List<ReplayTrack> tracks, DatabaseManager.ReplayData partner) {
+            this.tracks = tracks;
+            this.partner = partner;
+        }
+    }
+
+    private void playGhostReplayInternal(DatabaseManager.ReplayData replayData, List<ReplayTrack> tracks, Location origin, DatabaseManager.ReplayData preloadedPartner) {
         if (origin == null && activeReplays.contains(replayData.id)) return;
         
         if (origin == null && System.currentTimeMillis() < globalReplayCooldownUntil) {
@@ -525,17 +561,14 @@ public class ReplayManager {
         }
 
         DatabaseManager.ReplayData partnerReplay = preloadedPartner;
-        
-        if (replayData.type == ReplayType.PVP && partnerReplay == null && origin == null) {
-        }
 
         if (partnerReplay != null && origin == null && activeReplays.contains(partnerReplay.id)) {
             return;
         }
 
         if (origin == null) {
-            int maxConcurrent = plugin.getConfig().getInt("max-concurrent-replays", 5);
-            if (maxConcurrent < 2) maxConcurrent = 2;
+            SpectralConfig config = plugin.getSpectralConfig();
+            int maxConcurrent = config.maxConcurrentReplays;
 
             int needed = 1;
             if (partnerReplay != null) needed = 2;
@@ -544,9 +577,7 @@ public class ReplayManager {
                 return;
             }
 
-            long minDelay = plugin.getConfig().getLong("min-delay", 1200L);
-            long maxDelay = plugin.getConfig().getLong("max-delay", 3600L);
-            long delayMillis = ThreadLocalRandom.current().nextLong(minDelay, maxDelay + 1) * 50;
+            long delayMillis = ThreadLocalRandom.current().nextLong(config.minDelay, config.maxDelay + 1) * 50;
             globalReplayCooldownUntil = System.currentTimeMillis() + delayMillis;
 
             activeReplays.add(replayData.id);
@@ -554,27 +585,18 @@ public class ReplayManager {
                 activeReplays.add(partnerReplay.id);
             }
             
-            new BukkitRunnable() {
-                @Override
-                public void run() {
-                    databaseManager.incrementPlayCount(replayData.id);
-                    if (partnerReplay != null) {
-                        databaseManager.incrementPlayCount(partnerReplay.id);
-                    }
-                }
-            }.runTaskAsynchronously(plugin);
+            databaseManager.incrementPlayCount(replayData.id);
+            if (partnerReplay != null) {
+                databaseManager.incrementPlayCount(partnerReplay.id);
+            }
         }
 
-        startPlayback(replayData, origin, () -> {
-            if (origin == null) activeReplays.remove(replayData.id);
+        startPlayback(replayData, tracks, origin, () -> {
+            if (origin == null) {
+                activeReplays.remove(replayData.id);
+                if (partnerReplay != null) activeReplays.remove(partnerReplay.id);
+            }
         });
-
-        if (partnerReplay != null) {
-            final DatabaseManager.ReplayData finalPartnerReplay = partnerReplay;
-            startPlayback(finalPartnerReplay, origin, () -> {
-                if (origin == null) activeReplays.remove(finalPartnerReplay.id);
-            });
-        }
     }
 
     private NPC getGhostNPC() {
@@ -594,6 +616,7 @@ public class ReplayManager {
     }
 
     public void shutdown() {
+        placedReplays.stop();
         while (!npcPool.isEmpty()) {
             NPC npc = npcPool.poll();
             if (npc != null) {
@@ -611,304 +634,344 @@ public class ReplayManager {
         activeNPCs.clear();
     }
 
-    private void startPlayback(DatabaseManager.ReplayData replayData, Location origin, Runnable onComplete) {
-        List<ReplayFrame> frames = replayData.frames;
-        if (frames.isEmpty()) {
+    // Spawns a ghost per track and advances them all from one clock, so the ghosts of a fight stay in
+    // step. A placed replay's offset is taken from the first track and applied to every track.
+    private void startPlayback(DatabaseManager.ReplayData replayData, List<ReplayTrack> tracks, Location origin, Runnable onComplete) {
+        net.citizensnpcs.api.npc.NPCRegistry registry = CitizensAPI.getNPCRegistry();
+        if (registry == null) {
+            plugin.getLogger().severe("Citizens NPC Registry is null! Is Citizens enabled correctly?");
             onComplete.run();
             return;
         }
 
-        Location startLoc = origin != null ? origin.clone() : null;
-        if (startLoc == null) {
-            Location frameLoc = frames.get(0).getLocation();
-            if (frameLoc == null) {
-                onComplete.run();
-                return;
+        org.bukkit.util.Vector offset = null;
+        List<GhostTrack> ghosts = new ArrayList<>(tracks.size());
+        for (ReplayTrack track : tracks) {
+            ReplayFrame firstFrame = track.frames.peek();
+            if (firstFrame == null) continue;
+
+            Location startLoc;
+            if (offset == null) {
+                offset = origin != null 
+                    ? origin.toVector().subtract(new org.bukkit.util.Vector(firstFrame.getX(), firstFrame.getY(), firstFrame.getZ())) 
+                    : new org.bukkit.util.Vector(0, 0, 0);
+                startLoc = origin != null ? origin.clone() : firstFrame.getLocation();
+            } else {
+                Location frameLoc = firstFrame.getLocation();
+                startLoc = frameLoc != null ? frameLoc.add(offset) : null;
             }
-            startLoc = frameLoc;
+            if (startLoc == null || !startLoc.getChunk().isLoaded()) continue;
+
+            ghosts.add(new GhostTrack(replayData, track, offset, startLoc));
         }
 
-        if (!startLoc.getChunk().isLoaded()) {
+        if (ghosts.isEmpty()) {
             onComplete.run();
             return;
         }
 
-        org.bukkit.util.Vector offset = origin != null 
-            ? origin.toVector().subtract(new org.bukkit.util.Vector(frames.get(0).getX(), frames.get(0).getY(), frames.get(0).getZ())) 
-            : new org.bukkit.util.Vector(0, 0, 0);
+        new BukkitRunnable() {
+            int frameIndex = 0;
 
-        net.citizensnpcs.api.npc.NPCRegistry registry = CitizensAPI.getNPCRegistry();
-        if (registry == null) {
-            plugin.getLogger().severe("Citizens NPC Registry is null! Is Citizens enabled correctly?");
-            onComplete.run();
-            return;
-        }
+            @Override
+            public void run() {
+                boolean playing = false;
+                for (GhostTrack ghost : ghosts) {
+                    playing |= ghost.tick(frameIndex);
+                }
+                if (!playing) {
+                    this.cancel();
+                    onComplete.run();
+                    return;
+                }
+                frameIndex++;
+            }
+        }.runTaskTimer(plugin, 0L, 1L);
+    }
 
-        NPC npc = getGhostNPC();
-        activeNPCs.add(npc);
-        String ghostName = npc.getName();
+    // One ghost NPC following one track; tick() returns false once the track has ended and the
+    // ghost has been cleaned up.
+    private class GhostTrack {
+        private final DatabaseManager.ReplayData replayData;
+        private final FrameCursor cursor;
+        private final org.bukkit.util.Vector offset;
+        private final NPC npc;
+        private final String ghostName;
+        private ReplayFrame keyframe;
+        private ReplayFrame nextKeyframe;
+        private ItemStack lastEquippedItem = null;
+        private ItemStack[] lastEquippedArmor = null;
+        private final boolean showArmor;
+        private boolean finished = false;
+
+        GhostTrack(DatabaseManager.ReplayData replayData, ReplayTrack track, org.bukkit.util.Vector offset, Location startLoc) {
+            this.replayData = replayData;
+            this.cursor = track.frames;
+            this.offset = offset;
+            this.npc = getGhostNPC();
+            activeNPCs.add(npc);
+            this.ghostName = npc.getName();
+            SpectralConfig config = plugin.getSpectralConfig();
+            this.showArmor = replayData.type == ReplayType.PVP ? config.armorPvp : config.armorDeath;
         
-        try {
-            String playerName = Bukkit.getOfflinePlayer(replayData.uuid).getName();
-            if (playerName != null) {
-                npc.getOrAddTrait(SkinTrait.class).setSkinName(playerName);
+            try {
+                String playerName = Bukkit.getOfflinePlayer(track.uuid).getName();
+                if (playerName != null) {
+                    npc.getOrAddTrait(SkinTrait.class).setSkinName(playerName);
+                }
+            } catch (Exception e) {
             }
-        } catch (Exception e) {
-        }
 
-        npc.spawn(startLoc);
-        npc.setProtected(true);
+            npc.spawn(startLoc);
+            npc.setProtected(true);
         
-        if (replayData.type == ReplayType.PVP) {
-            startLoc.getWorld().playSound(startLoc, Sound.EVENT_RAID_HORN, 2.0f, 0.8f);
-            startLoc.getWorld().playSound(startLoc, Sound.ENTITY_WITHER_SPAWN, 0.5f, 0.5f);
-        } else {
-            startLoc.getWorld().playSound(startLoc, Sound.AMBIENT_SOUL_SAND_VALLEY_MOOD, 1.0f, 0.8f);
-            startLoc.getWorld().playSound(startLoc, Sound.ENTITY_ENDERMAN_SCREAM, 1.0f, 0.5f);
-            startLoc.getWorld().playSound(startLoc, Sound.ENTITY_GHAST_SCREAM, 0.5f, 0.1f);
-        }
+            if (replayData.type == ReplayType.PVP) {
+                startLoc.getWorld().playSound(startLoc, Sound.EVENT_RAID_HORN, 2.0f, 0.8f);
+                startLoc.getWorld().playSound(startLoc, Sound.ENTITY_WITHER_SPAWN, 0.5f, 0.5f);
+            } else {
+                startLoc.getWorld().playSound(startLoc, Sound.AMBIENT_SOUL_SAND_VALLEY_MOOD, 1.0f, 0.8f);
+                startLoc.getWorld().playSound(startLoc, Sound.ENTITY_ENDERMAN_SCREAM, 1.0f, 0.5f);
+                startLoc.getWorld().playSound(startLoc, Sound.ENTITY_GHAST_SCREAM, 0.5f, 0.1f);
+            }
         
-        npc.data().set("nameplate-visible", false);
+            npc.data().set("nameplate-visible", false);
+
+            Team team = getOrRegisterGhostTeam();
+            if (team != null) {
+                team.addEntry(ghostName);
+            }
 
-        Team team = getOrRegisterGhostTeam();
-        if (team != null) {
-            team.addEntry(ghostName);
+            this.keyframe = cursor.next();
+            this.nextKeyframe = cursor.peek();
         }
 
-        new BukkitRunnable() {
-            int frameIndex = 0;
-            ItemStack lastEquippedItem = null;
-            ItemStack[] lastEquippedArmor = null;
+        boolean tick(int frameIndex) {
+            if (finished) return false;
 
-            @Override
-            public void run() {
-                if (frameIndex >= frames.size() || !npc.isSpawned()) {
-                    this.cancel();
-                    try {
-                        cleanup();
-                    } catch (Exception e) {
-                        plugin.getLogger().warning("Error during replay cleanup: " + e.getMessage());
-                    }
-                    return;
+            if ((nextKeyframe == null && frameIndex > keyframe.getTick()) || !npc.isSpawned()) {
+                finished = true;
+                try {
+                    cleanup();
+                } catch (Exception e) {
+                    plugin.getLogger().warning("Error during replay cleanup: " + e.getMessage());
                 }
+                return false;
+            }
 
-                ReplayFrame frame = frames.get(frameIndex);
-                Location frameLoc = frame.getLocation();
-                if (frameLoc == null) {
-                    this.cancel();
-                    cleanup();
-                    return;
+            while (nextKeyframe != null && nextKeyframe.getTick() <= frameIndex) {
+                keyframe = cursor.next();
+                nextKeyframe = cursor.peek();
+            }
+            ReplayFrame frame = keyframe.getTick() == frameIndex || nextKeyframe == null
+                    ? keyframe
+                    : ReplayFrame.interpolate(keyframe, nextKeyframe, frameIndex);
+            Location frameLoc = frame.getLocation();
+            if (frameLoc == null) {
+                finished = true;
+                cleanup();
+                return false;
+            }
+            Location targetLoc = frameLoc.clone().add(offset);
+            
+            try {
+                if (targetLoc.distanceSquared(npc.getStoredLocation()) > 0.0001) {
+                    npc.teleport(targetLoc, org.bukkit.event.player.PlayerTeleportEvent.TeleportCause.PLUGIN);
                 }
-                Location targetLoc = frameLoc.clone().add(offset);
                 
-                try {
-                    if (targetLoc.distanceSquared(npc.getStoredLocation()) > 0.0001) {
-                        npc.teleport(targetLoc, org.bukkit.event.player.PlayerTeleportEvent.TeleportCause.PLUGIN);
-                    }
-                    
-                    ItemStack currentItem = frame.getItemInHand();
-                    if (!Objects.equals(currentItem, lastEquippedItem)) {
-                        if (currentItem != null) {
-                            npc.getOrAddTrait(Equipment.class).set(Equipment.EquipmentSlot.HAND, currentItem);
-                        } else {
-                            npc.getOrAddTrait(Equipment.class).set(Equipment.EquipmentSlot.HAND, new ItemStack(Material.AIR));
-                        }
-                        lastEquippedItem = currentItem;
-                    }
-
-                    boolean showArmor = false;
-                    if (replayData.type == ReplayType.PVP) {
-                        showArmor = plugin.getConfig().getBoolean("armor-pvp", true);
+                ItemStack currentItem = frame.getItemInHand();
+                if (currentItem != lastEquippedItem) {
+                    if (currentItem != null) {
+                        npc.getOrAddTrait(Equipment.class).set(Equipment.EquipmentSlot.HAND, currentItem);
                     } else {
-                        showArmor = plugin.getConfig().getBoolean("armor-death", false);
+                        npc.getOrAddTrait(Equipment.class).set(Equipment.EquipmentSlot.HAND, new ItemStack(Material.AIR));
                     }
+                    lastEquippedItem = currentItem;
+                }
 
-                    if (showArmor) {
-                        ItemStack[] currentArmor = frame.getArmor();
-                        if (!Arrays.equals(currentArmor, lastEquippedArmor)) {
-                            if (currentArmor != null && currentArmor.length == 4) {
-                                Equipment equipment = npc.getOrAddTrait(Equipment.class);
-                                equipment.set(Equipment.EquipmentSlot.BOOTS, currentArmor[0]);
-                                equipment.set(Equipment.EquipmentSlot.LEGGINGS, currentArmor[1]);
-                                equipment.set(Equipment.EquipmentSlot.CHESTPLATE, currentArmor[2]);
-                                equipment.set(Equipment.EquipmentSlot.HELMET, currentArmor[3]);
-                            }
-                            lastEquippedArmor = currentArmor;
-                        }
-                    } else {
-                        if (lastEquippedArmor != null || frameIndex == 0) {
+                if (showArmor) {
+                    ItemStack[] currentArmor = frame.getArmor();
+                    if (!ItemPool.sameItems(currentArmor, lastEquippedArmor)) {
+                        if (currentArmor != null && currentArmor.length == 4) {
                             Equipment equipment = npc.getOrAddTrait(Equipment.class);
-                            equipment.set(Equipment.EquipmentSlot.BOOTS, new ItemStack(Material.AIR));
-                            equipment.set(Equipment.EquipmentSlot.LEGGINGS, new ItemStack(Material.AIR));
-                            equipment.set(Equipment.EquipmentSlot.CHESTPLATE, new ItemStack(Material.AIR));
-                            equipment.set(Equipment.EquipmentSlot.HELMET, new ItemStack(Material.AIR));
-                            lastEquippedArmor = null;
+                            equipment.set(Equipment.EquipmentSlot.BOOTS, currentArmor[0]);
+                            equipment.set(Equipment.EquipmentSlot.LEGGINGS, currentArmor[1]);
+                            equipment.set(Equipment.EquipmentSlot.CHESTPLATE, currentArmor[2]);
+                            equipment.set(Equipment.EquipmentSlot.HELMET, currentArmor[3]);
                         }
+                        lastEquippedArmor = currentArmor;
+                    }
+                } else {
+                    if (lastEquippedArmor != null || frameIndex == 0) {
+                        Equipment equipment = npc.getOrAddTrait(Equipment.class);
+                        equipment.set(Equipment.EquipmentSlot.BOOTS, new ItemStack(Material.AIR));
+                        equipment.set(Equipment.EquipmentSlot.LEGGINGS, new ItemStack(Material.AIR));
+                        equipment.set(Equipment.EquipmentSlot.CHESTPLATE, new ItemStack(Material.AIR));
+                        equipment.set(Equipment.EquipmentSlot.HELMET, new ItemStack(Material.AIR));
+                        lastEquippedArmor = null;
                     }
+                }
+
+                if (frameIndex % 3 == 0) {
+                    World world = targetLoc.getWorld();
+                    if (world != null) {
+                        Location particleLoc = targetLoc.clone().add(0, 1, 0);
+                        
+                        if (replayData.type == ReplayType.PVP) {                                
 
-                    if (frameIndex % 3 == 0) {
-                        World world = targetLoc.getWorld();
-                        if (world != null) {
-                            Location particleLoc = targetLoc.clone().add(0, 1, 0);
+                            world.spawnParticle(Particle.SCULK_SOUL, particleLoc, 2, 0.3, 0.5, 0.3, 0.02);
                             
-                            if (replayData.type == ReplayType.PVP) {                                
-
-                                world.spawnParticle(Particle.SCULK_SOUL, particleLoc, 2, 0.3, 0.5, 0.3, 0.02);
-                                
-                                double maxRadius = 1.2;
-                                double height = 2.2;
-                                
-                                double y = (frameIndex % 30) / 30.0 * height; 
-                                double r = maxRadius * (1 - (y / height));
-                                double time = frameIndex * 0.3;
-                                
-                                double x1 = r * Math.cos(time + y * 4);
-                                double z1 = r * Math.sin(time + y * 4);
-                                world.spawnParticle(Particle.SCULK_SOUL, targetLoc.clone().add(x1, y, z1), 1, 0, 0, 0, 0);
-                                
-                                double x2 = r * Math.cos(time + y * 4 + Math.PI);
-                                double z2 = r * Math.sin(time + y * 4 + Math.PI);
-                                world.spawnParticle(Particle.SCULK_SOUL, targetLoc.clone().add(x2, y, z2), 1, 0, 0, 0, 0);
-
-                            } else {
-                                world.spawnParticle(Particle.SCULK_SOUL, particleLoc, 3, 0.2, 0.5, 0.2, 0.02);
-                            }
+                            double maxRadius = 1.2;
+                            double height = 2.2;
+                            
+                            double y = (frameIndex % 30) / 30.0 * height; 
+                            double r = maxRadius * (1 - (y / height));
+                            double time = frameIndex * 0.3;
+                            
+                            double x1 = r * Math.cos(time + y * 4);
+                            double z1 = r * Math.sin(time + y * 4);
+                            world.spawnParticle(Particle.SCULK_SOUL, targetLoc.clone().add(x1, y, z1), 1, 0, 0, 0, 0);
+                            
+                            double x2 = r * Math.cos(time + y * 4 + Math.PI);
+                            double z2 = r * Math.sin(time + y * 4 + Math.PI);
+                            world.spawnParticle(Particle.SCULK_SOUL, targetLoc.clone().add(x2, y, z2), 1, 0, 0, 0, 0);
+
+                        } else {
+                            world.spawnParticle(Particle.SCULK_SOUL, particleLoc, 3, 0.2, 0.5, 0.2, 0.02);
                         }
                     }
+                }
 
-                    if (frameIndex % 40 == 0) {
-                        if (replayData.type != ReplayType.PVP) {
-                            targetLoc.getWorld().playSound(targetLoc, Sound.ENTITY_VEX_AMBIENT, 0.5f, 0.5f);
-                        }
+                if (frameIndex % 40 == 0) {
+                    if (replayData.type != ReplayType.PVP) {
+                        targetLoc.getWorld().playSound(targetLoc, Sound.ENTITY_VEX_AMBIENT, 0.5f, 0.5f);
                     }
+                }
 
-                    if (frameIndex % 4 == 0) {
-                        for (Player p : targetLoc.getWorld().getPlayers()) {
-                            if (replayData.type == ReplayType.PVP) continue;
+                if (frameIndex % 4 == 0) {
+                    for (Player p : targetLoc.getWorld().getPlayers()) {
+                        if (replayData.type == ReplayType.PVP) continue;
 
-                            double distanceSquared = p.getLocation().distanceSquared(targetLoc);
-                            if (distanceSquared < 9) {
-                                p.addPotionEffect(new PotionEffect(PotionEffectType.DARKNESS, 30, 0, false, false, false));
-                                
-                                if (frameIndex % 20 == 0) {
-                                    p.playSound(p.getLocation(), Sound.BLOCK_SCULK_SHRIEKER_SHRIEK, 0.1f, 0.5f);
-                                }
+                        double distanceSquared = p.getLocation().distanceSquared(targetLoc);
+                        if (distanceSquared < 9) {
+                            p.addPotionEffect(new PotionEffect(PotionEffectType.DARKNESS, 30, 0, false, false, false));
+                            
+                            if (frameIndex % 20 == 0) {
+                                p.playSound(p.getLocation(), Sound.BLOCK_SCULK_SHRIEKER_SHRIEK, 0.1f, 0.5f);
                             }
                         }
                     }
+                }
 
-                    if (npc.getEntity() instanceof Player) {
-                        Player npcPlayer = (Player) npc.getEntity();
-                        
-                        if (replayData.type == ReplayType.PVP) {
-                            if (!npcPlayer.hasPotionEffect(PotionEffectType.INVISIBILITY)) {
-                                npcPlayer.addPotionEffect(new PotionEffect(PotionEffectType.INVISIBILITY, Integer.MAX_VALUE, 1, false, false));
-                            }
-                            if (npcPlayer.hasPotionEffect(PotionEffectType.GLOWING)) {
-                                npcPlayer.removePotionEffect(PotionEffectType.GLOWING);
-                            }
-                        } else {
-                            if (!npcPlayer.hasPotionEffect(PotionEffectType.INVISIBILITY)) {
-                                npcPlayer.addPotionEffect(new PotionEffect(PotionEffectType.INVISIBILITY, Integer.MAX_VALUE, 1, false, false));
-                            }
+                if (npc.getEntity() instanceof Player) {
+                    Player npcPlayer = (Player) npc.getEntity();
+                    
+                    if (replayData.type == ReplayType.PVP) {
+                        if (!npcPlayer.hasPotionEffect(PotionEffectType.INVISIBILITY)) {
+                            npcPlayer.addPotionEffect(new PotionEffect(PotionEffectType.INVISIBILITY, Integer.MAX_VALUE, 1, false, false));
                         }
-
-                        if (frame.getAction() == PlayerAction.SWING_HAND) {
-                            npcPlayer.swingMainHand();
-                            if (replayData.type == ReplayType.PVP) {
-                                targetLoc.getWorld().playSound(targetLoc, Sound.ENTITY_PLAYER_ATTACK_STRONG, 1.0f, 1.0f);
-                            }
-                        } else if (frame.getAction() == PlayerAction.ATTACK) {
-                            npcPlayer.swingMainHand();
-                            if (replayData.type == ReplayType.PVP) {
-                                targetLoc.getWorld().playSound(targetLoc, Sound.ENTITY_VEX_HURT, 1.0f, 0.6f);
-                                targetLoc.getWorld().playSound(targetLoc, Sound.ENTITY_PHANTOM_HURT, 0.5f, 0.8f);
-                                targetLoc.getWorld().playSound(targetLoc, Sound.ENTITY_PLAYER_HURT, 1.0f, 0.5f);
-                            }
+                        if (npcPlayer.hasPotionEffect(PotionEffectType.GLOWING)) {
+                            npcPlayer.removePotionEffect(PotionEffectType.GLOWING);
+                        }
+                    } else {
+                        if (!npcPlayer.hasPotionEffect(PotionEffectType.INVISIBILITY)) {
+                            npcPlayer.addPotionEffect(new PotionEffect(PotionEffectType.INVISIBILITY, Integer.MAX_VALUE, 1, false, false));
                         }
-                        
-                        npcPlayer.setSneaking(frame.isSneaking());
                     }
 
-                } catch (Exception e) {
-                    plugin.getLogger().warning("Replay stopped due to error: " + e.getMessage());
-                    this.cancel();
-                    try {
-                        cleanup();
-                    } catch (Exception ex) {
-                        plugin.getLogger().warning("Error during replay cleanup (after error): " + ex.getMessage());
+                    if (frame.getAction() == PlayerAction.SWING_HAND) {
+                        npcPlayer.swingMainHand();
+                        if (replayData.type == ReplayType.PVP) {
+                            targetLoc.getWorld().playSound(targetLoc, Sound.ENTITY_PLAYER_ATTACK_STRONG, 1.0f, 1.0f);
+                        }
+                    } else if (frame.getAction() == PlayerAction.ATTACK) {
+                        npcPlayer.swingMainHand();
+                        if (replayData.type == ReplayType.PVP) {
+                            targetLoc.getWorld().playSound(targetLoc, Sound.ENTITY_VEX_HURT, 1.0f, 0.6f);
+                            targetLoc.getWorld().playSound(targetLoc, Sound.ENTITY_PHANTOM_HURT, 0.5f, 0.8f);
+                            targetLoc.getWorld().playSound(targetLoc, Sound.ENTITY_PLAYER_HURT, 1.0f, 0.5f);
+                        }
                     }
-                    return;
+                    
+                    npcPlayer.setSneaking(frame.isSneaking());
                 }
 
-                frameIndex++;
+            } catch (Exception e) {
+                plugin.getLogger().warning("Replay stopped due to error: " + e.getMessage());
+                finished = true;
+                try {
+                    cleanup();
+                } catch (Exception ex) {
+                    plugin.getLogger().warning("Error during replay cleanup (after error): " + ex.getMessage());
+                }
+                return false;
             }
 
-            private void cleanup() {
-                onComplete.run();
-                Team team = getOrRegisterGhostTeam();
-                if (team != null) {
-                    team.removeEntry(ghostName);
-                }
-                if (npc.isSpawned()) {
-                    Location loc = npc.getStoredLocation();
-                    
-                    try {
-                        if (replayData.type == ReplayType.PVP) {
-                            safeSpawnParticle(loc.getWorld(), Particle.EXPLOSION_EMITTER, loc, 5, 0, 0, 0, 0);
-                            safeSpawnParticle(loc.getWorld(), Particle.FLASH, loc, 2, 0, 0, 0, 0);
-                            safeSpawnParticle(loc.getWorld(), Particle.SONIC_BOOM, loc, 1, 0, 0, 0, 0);
-                            
-                            loc.getWorld().playSound(loc, Sound.ENTITY_GENERIC_EXPLODE, 2.0f, 0.5f);
-                            loc.getWorld().playSound(loc, Sound.ENTITY_WITHER_BREAK_BLOCK, 1.0f, 0.5f);
-                            
-                            for (org.bukkit.entity.Entity entity : loc.getWorld().getNearbyEntities(loc, 15, 15, 15)) {
-                                if (entity instanceof Player && !entity.getUniqueId().equals(npc.getUniqueId()) && !CitizensAPI.getNPCRegistry().isNPC(entity)) {
-                                    org.bukkit.util.Vector direction = entity.getLocation().toVector().subtract(loc.toVector());
-                                    if (direction.lengthSquared() == 0) {
-                                        direction = new org.bukkit.util.Vector(0, 1, 0);
-                                    } else {
-                                        direction.normalize();
-                                    }
-                                    entity.setVelocity(direction.multiply(2.5).setY(0.8));
+            return true;
+        }
+
+        private void cleanup() {
+            Team team = getOrRegisterGhostTeam();
+            if (team != null) {
+                team.removeEntry(ghostName);
+            }
+            if (npc.isSpawned()) {
+                Location loc = npc.getStoredLocation();
+                
+                try {
+                    if (replayData.type == ReplayType.PVP) {
+                        safeSpawnParticle(loc.getWorld(), Particle.EXPLOSION_EMITTER, loc, 5, 0, 0, 0, 0);
+                        safeSpawnParticle(loc.getWorld(), Particle.FLASH, loc, 2, 0, 0, 0, 0);
+                        safeSpawnParticle(loc.getWorld(), Particle.SONIC_BOOM, loc, 1, 0, 0, 0, 0);
+                        
+                        loc.getWorld().playSound(loc, Sound.ENTITY_GENERIC_EXPLODE, 2.0f, 0.5f);
+                        loc.getWorld().playSound(loc, Sound.ENTITY_WITHER_BREAK_BLOCK, 1.0f, 0.5f);
+                        
+                        for (org.bukkit.entity.Entity entity : loc.getWorld().getNearbyEntities(loc, 15, 15, 15)) {
+                            if (entity instanceof Player && !entity.getUniqueId().equals(npc.getUniqueId()) && !CitizensAPI.getNPCRegistry().isNPC(entity)) {
+                                org.bukkit.util.Vector direction = entity.getLocation().toVector().subtract(loc.toVector());
+                                if (direction.lengthSquared() == 0) {
+                                    direction = new org.bukkit.util.Vector(0, 1, 0);
+                                } else {
+                                    direction.normalize();
                                 }
+                                entity.setVelocity(direction.multiply(2.5).setY(0.8));
                             }
-                        } else {
-                            safeSpawnParticle(loc.getWorld(), Particle.SOUL, loc.clone().add(0, 1, 0), 10, 0.5, 0.5, 0.5, 0.1);
-                            safeSpawnParticle(loc.getWorld(), Particle.SCULK_SOUL, loc, 15, 0.2, 0.5, 0.2, 0.05);
-                            
-                            loc.getWorld().playSound(loc, Sound.ENTITY_ZOMBIE_VILLAGER_CONVERTED, 1.0f, 0.6f);
-
-                            for (org.bukkit.entity.Entity entity : loc.getWorld().getNearbyEntities(loc, 5, 5, 5)) {
-                                if (entity instanceof Player && !entity.getUniqueId().equals(npc.getUniqueId()) && !CitizensAPI.getNPCRegistry().isNPC(entity)) {
-                                    org.bukkit.util.Vector direction = entity.getLocation().toVector().subtract(loc.toVector());
-                                    if (direction.lengthSquared() == 0) {
-                                        direction = new org.bukkit.util.Vector(0, 0.5, 0);
-                                    } else {
-                                        direction.normalize();
-                                    }
-                                    entity.setVelocity(direction.multiply(1.5).setY(0.5));
+                        }
+                    } else {
+                        safeSpawnParticle(loc.getWorld(), Particle.SOUL, loc.clone().add(0, 1, 0), 10, 0.5, 0.5, 0.5, 0.1);
+                        safeSpawnParticle(loc.getWorld(), Particle.SCULK_SOUL, loc, 15, 0.2, 0.5, 0.2, 0.05);
+                        
+                        loc.getWorld().playSound(loc, Sound.ENTITY_ZOMBIE_VILLAGER_CONVERTED, 1.0f, 0.6f);
+
+                        for (org.bukkit.entity.Entity entity : loc.getWorld().getNearbyEntities(loc, 5, 5, 5)) {
+                            if (entity instanceof Player && !entity.getUniqueId().equals(npc.getUniqueId()) && !CitizensAPI.getNPCRegistry().isNPC(entity)) {
+                                org.bukkit.util.Vector direction = entity.getLocation().toVector().subtract(loc.toVector());
+                                if (direction.lengthSquared() == 0) {
+                                    direction = new org.bukkit.util.Vector(0, 0.5, 0);
+                                } else {
+                                    direction.normalize();
                                 }
+                                entity.setVelocity(direction.multiply(1.5).setY(0.5));
                             }
                         }
-                    } catch (Exception e) {
-                        plugin.getLogger().warning("Error playing cleanup effects: " + e.getMessage());
                     }
-
-                    activeNPCs.remove(npc);
-                    releaseGhostNPC(npc);
-                } else {
-                    activeNPCs.remove(npc);
-                    releaseGhostNPC(npc);
+                } catch (Exception e) {
+                    plugin.getLogger().warning("Error playing cleanup effects: " + e.getMessage());
                 }
+
+                activeNPCs.remove(npc);
+                releaseGhostNPC(npc);
+            } else {
+                activeNPCs.remove(npc);
+                releaseGhostNPC(npc);
             }
+        }
 
-            private void safeSpawnParticle(World world, Particle particle, Location loc, int count, double x, double y, double z, double speed) {
-                try {
-                    world.spawnParticle(particle, loc, count, x, y, z, speed);
-                } catch (Exception ignored) {
-                }
+        private void safeSpawnParticle(World world, Particle particle, Location loc, int count, double x, double y, double z, double speed) {
+            try {
+                world.spawnParticle(particle, loc, count, x, y, z, speed);
+            } catch (Exception ignored) {
             }
-        }.runTaskTimer(plugin, 0L, 1L);
+        }
     }
 }
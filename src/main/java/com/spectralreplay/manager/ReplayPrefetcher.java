@@ -0,0 +1,300 @@
+package com.spectralreplay.manager;
+
+import com.spectralreplay.SpectralConfig;
+import com.spectralreplay.SpectralReplay;
+import com.spectralreplay.database.DatabaseManager;
+import com.spectralreplay.model.ReplayTrack;
+import com.spectralreplay.model.ReplayType;
+import org.bukkit.Bukkit;
+import org.bukkit.GameMode;
+import org.bukkit.Location;
+import org.bukkit.World;
+import org.bukkit.entity.Player;
+import org.bukkit.scheduler.BukkitRunnable;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+
+// Decodes replays a moving player is about to walk into, so the proximity trigger can spawn the
+// ghost in the same tick instead of waiting on a database read. Each player's velocity is taken
+// from their last two samples and projected lookahead seconds ahead; replays within the proximity
+// radius of that path, and in front of the player, are loaded into the replay cache. The frames
+// live only in the replay cache, so deletion and eviction are handled there; this class keeps
+// just the metadata of what it fetched. Everything except the load runs on the main thread.
+class ReplayPrefetcher {
+
+    private static final long PERIOD = 10L;
+    // Slower than this, in blocks per second, and the regular trigger is quick enough.
+    private static final double MIN_SPEED = 1.0;
+    // Faster than this is a teleport, not movement.
+    private static final double MAX_SPEED = 60.0;
+    private static final double MAX_PROJECTION = 48.0;
+    private static final int PER_PLAYER = 2;
+    private static final int GAME_TIME_NIGHT_START = 13000;
+    private static final int GAME_TIME_NIGHT_END = 23000;
+
+    private final SpectralReplay plugin;
+    private final DatabaseManager databaseManager;
+    private final Map<UUID, Sample> samples = new HashMap<>();
+    private final LinkedHashMap<Integer, Prefetched> prefetched = new LinkedHashMap<>(16, 0.75f, true);
+    private boolean loading = false;
+    private long hits = 0;
+
+    ReplayPrefetcher(SpectralReplay plugin, DatabaseManager databaseManager) {
+        this.plugin = plugin;
+        this.databaseManager = databaseManager;
+    }
+
+    void start() {
+        Location scratch = new Location(null, 0, 0, 0);
+        new BukkitRunnable() {
+            @Override
+            public void run() {
+                try {
+                    sample(scratch);
+                } catch (Exception e) {
+                    plugin.getLogger().warning("Error in replay prefetch task: " + e.getMessage());
+                }
+            }
+        }.runTaskTimer(plugin, 100L, PERIOD);
+    }
+
+    void clear() {
+        samples.clear();
+        prefetched.clear();
+    }
+
+    long getHits() {
+        return hits;
+    }
+
+    int size() {
+        return prefetched.size();
+    }
+
+    // Prefetched replays within radius of the location on each axis, the same box the regular
+    // lookup uses.
+    List<Prefetched> near(Location location, double radius) {
+        if (prefetched.isEmpty()) return Collections.emptyList();
+        List<Prefetched> result = new ArrayList<>();
+        for (Prefetched entry : prefetched.values()) {
+            Location at = entry.replay.location;
+            if (at.getWorld() == location.getWorld() && Math.abs(at.getX() - location.getX()) <= radius
+                    && Math.abs(at.getY() - location.getY()) <= radius && Math.abs(at.getZ() - location.getZ()) <= radius) {
+                result.add(entry);
+            }
+        }
+        return result;
+    }
+
+    // Fresh tracks from the replay cache, with a legacy PVP partner's track appended, or null if
+    // any of them has since been evicted or deleted.
+    List<ReplayTrack> openTracks(Prefetched entry) {
+        List<ReplayTrack> tracks = databaseManager.getCachedTracks(entry.replay.id);
+        if (tracks != null && entry.partner != null) {
+            List<ReplayTrack> partnerTracks = databaseManager.getCachedTracks(entry.partner.id);
+            if (partnerTracks == null || partnerTracks.isEmpty()) {
+                tracks = null;
+            } else {
+                tracks.add(partnerTracks.get(0));
+            }
+        }
+        if (tracks == null || tracks.isEmpty()) {
+            prefetched.remove(entry.replay.id);
+            return null;
+        }
+        hits++;
+        return tracks;
+    }
+
+    private void sample(Location scratch) {
+        SpectralConfig config = plugin.getSpectralConfig();
+        if (!config.proximityEnabled || !config.prefetchEnabled || !databaseManager.getReplayCache().isEnabled()) {
+            clear();
+            return;
+        }
+
+        long now = System.currentTimeMillis();
+        Iterator<Prefetched> expired = prefetched.values().iterator();
+        while (expired.hasNext()) {
+            if (now - expired.next().fetchedAt > config.prefetchLookaheadMillis * 4) expired.remove();
+        }
+
+        List<Path> paths = new ArrayList<>();
+        Set<UUID> online = new HashSet<>();
+        for (Player player : Bukkit.getOnlinePlayers()) {
+            online.add(player.getUniqueId());
+            if (player.getGameMode() == GameMode.SPECTATOR) continue;
+            player.getLocation(scratch);
+            Sample last = samples.put(player.getUniqueId(), new Sample(scratch.getWorld(), scratch.getX(), scratch.getY(), scratch.getZ(), now));
+            if (last == null || last.world != scratch.getWorld() || now <= last.time) continue;
+
+            double seconds = (now - last.time) / 1000.0;
+            double vx = (scratch.getX() - last.x) / seconds;
+            double vy = (scratch.getY() - last.y) / seconds;
+            double vz = (scratch.getZ() - last.z) / seconds;
+            double speed = Math.sqrt(vx * vx + vy * vy + vz * vz);
+            if (speed < MIN_SPEED || speed > MAX_SPEED) continue;
+
+            double length = Math.min(MAX_PROJECTION, speed * config.prefetchLookaheadMillis / 1000.0);
+            paths.add(new Path(scratch.getWorld(), scratch.getX(), scratch.getY(), scratch.getZ(),
+                    vx / speed, vy / speed, vz / speed, length, scratch.getWorld().getTime()));
+        }
+        samples.keySet().retainAll(online);
+
+        if (paths.isEmpty() || loading) return;
+        loading = true;
+        Set<Integer> known = new HashSet<>(prefetched.keySet());
+        double radius = config.proximityRadius;
+        int maxPlays = config.maxPlaysPerReplay;
+        databaseManager.supplyAsync(() -> load(paths, known, radius, maxPlays))
+                .whenCompleteAsync((loaded, error) -> {
+                    loading = false;
+                    if (error != null) {
+                        plugin.getLogger().warning("Error prefetching replays: " + error.getMessage());
+                        return;
+                    }
+                    int max = plugin.getSpectralConfig().prefetchMaxReplays;
+                    for (Prefetched entry : loaded) {
+                        prefetched.put(entry.replay.id, entry);
+                    }
+                    Iterator<Integer> eldest = prefetched.keySet().iterator();
+                    while (prefetched.size() > max && eldest.hasNext()) {
+                        eldest.next();
+                        eldest.remove();
+                    }
+                }, databaseManager.mainThreadExecutor());
+    }
+
+    // Runs on the database executor. Picks the closest eligible replays ahead on each path and
+    // decodes them into the replay cache.
+    private List<Prefetched> load(List<Path> paths, Set<Integer> known, double radius, int maxPlays) {
+        List<Prefetched> loaded = new ArrayList<>();
+        long now = System.currentTimeMillis();
+        for (Path path : paths) {
+            double endX = path.x + path.dx * path.length;
+            double endY = path.y + path.dy * path.length;
+            double endZ = path.z + path.dz * path.length;
+            List<DatabaseManager.ReplayData> hits = databaseManager.getReplayMetaInBox(path.world,
+                    Math.min(path.x, endX) - radius, Math.min(path.y, endY) - radius, Math.min(path.z, endZ) - radius,
+                    Math.max(path.x, endX) + radius, Math.max(path.y, endY) + radius, Math.max(path.z, endZ) + radius, null);
+
+            List<DatabaseManager.ReplayData> ahead = new ArrayList<>();
+            Map<Integer, Double> along = new HashMap<>();
+            for (DatabaseManager.ReplayData replay : hits) {
+                if (known.contains(replay.id) || !eligible(replay, path.worldTime, maxPlays)) continue;
+                double rx = replay.location.getX() - path.x;
+                double ry = replay.location.getY() - path.y;
+                double rz = replay.location.getZ() - path.z;
+                // Distance along the heading, and how far the replay sits off the path. The trigger
+                // box reaches sqrt(3) radius at its corners.
+                double t = rx * path.dx + ry * path.dy + rz * path.dz;
+                if (t < 0 || t > path.length + radius) continue;
+                double ox = rx - path.dx * t, oy = ry - path.dy * t, oz = rz - path.dz * t;
+                if (ox * ox + oy * oy + oz * oz > radius * radius * 3) continue;
+                ahead.add(replay);
+                along.put(replay.id, t);
+            }
+            ahead.sort((a, b) -> Double.compare(along.get(a.id), along.get(b.id)));
+
+            for (int i = 0; i < ahead.size() && i < PER_PLAYER; i++) {
+                DatabaseManager.ReplayData replay = ahead.get(i);
+                known.add(replay.id);
+                Prefetched entry = fetch(replay, now);
+                if (entry != null) loaded.add(entry);
+            }
+        }
+        return loaded;
+    }
+
+    private boolean eligible(DatabaseManager.ReplayData replay, long worldTime, int maxPlays) {
+        if (replay.type != ReplayType.DEATH && replay.type != ReplayType.PVP) return false;
+        if (replay.type == ReplayType.DEATH && (worldTime < GAME_TIME_NIGHT_START || worldTime > GAME_TIME_NIGHT_END)) return false;
+        return maxPlays == -1 || databaseManager.getPlayCount(replay) < maxPlays;
+    }
+
+    private Prefetched fetch(DatabaseManager.ReplayData replay, long now) {
+        int trackCount = databaseManager.preloadTracks(replay.id);
+        if (trackCount == 0) return null;
+        if (replay.type != ReplayType.PVP || replay.matchId == 0) {
+            return new Prefetched(replay, null, Collections.emptyList(), now);
+        }
+
+        List<DatabaseManager.ReplayData> match = databaseManager.getMatchReplays(replay.matchId);
+        DatabaseManager.ReplayData partner = null;
+        // Fights saved before multi-track records are two rows linked by a match id.
+        if (trackCount == 1) {
+            for (DatabaseManager.ReplayData member : match) {
+                if (member.id != replay.id && !member.uuid.equals(replay.uuid)) {
+                    partner = member;
+                    break;
+                }
+            }
+            if (partner == null || databaseManager.preloadTracks(partner.id) == 0) return null;
+        }
+        return new Prefetched(replay, partner, match, now);
+    }
+
+    static class Prefetched {
+        final DatabaseManager.ReplayData replay;
+        final DatabaseManager.ReplayData partner;
+        // Every replay of the fight, so the whole match can be put on cooldown without a lookup.
+        final List<DatabaseManager.ReplayData> match;
+        final long fetchedAt;
+
+        Prefetched(DatabaseManager.ReplayData replay, DatabaseManager.ReplayData partner, List<DatabaseManager.ReplayData> match, long fetchedAt) {
+            this.replay = replay;
+            this.partner = partner;
+            this.match = match;
+            this.fetchedAt = fetchedAt;
+        }
+    }
+
+    private static class Sample {
+        final World world;
+        final double x;
+        final double y;
+        final double z;
+        final long time;
+
+        Sample(World world, double x, double y, double z, long time) {
+            this.world = world;
+            this.x = x;
+            this.y = y;
+            this.z = z;
+            this.time = time;
+        }
+    }
+
+    private static class Path {
+        final World world;
+        final double x;
+        final double y;
+        final double z;
+        final double dx;
+        final double dy;
+        final double dz;
+        final double length;
+        final long worldTime;
+
+        Path(World world, double x, double y, double z, double dx, double dy, double dz, double length, long worldTime) {
+            this.world = world;
+            this.x = x;
+            this.y = y;
+            this.z = z;
+            this.dx = dx;
+            this.dy = dy;
+            this.dz = dz;
+            this.length = length;
+            this.worldTime = worldTime;
+        }
+    }
+}
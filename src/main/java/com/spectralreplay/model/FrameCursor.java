@@ -0,0 +1,33 @@
+package com.spectralreplay.model;
+
+import java.util.List;
+
+// Sequential, single-use view over a replay's frames. Blob-backed cursors decode one frame
+// per call, so playback that stops early never pays for the rest of the replay.
+public interface FrameCursor {
+
+    // The next frame without consuming it, or null once the replay is exhausted.
+    ReplayFrame peek();
+
+    ReplayFrame next();
+
+    default boolean hasNext() {
+        return peek() != null;
+    }
+
+    static FrameCursor of(List<ReplayFrame> frames) {
+        return new FrameCursor() {
+            private int index = 0;
+
+            @Override
+            public ReplayFrame peek() {
+                return index < frames.size() ? frames.get(index) : null;
+            }
+
+            @Override
+            public ReplayFrame next() {
+                return index < frames.size() ? frames.get(index++) : null;
+            }
+        };
+    }
+}
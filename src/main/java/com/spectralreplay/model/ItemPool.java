@@ -0,0 +1,57 @@
+package com.spectralreplay.model;
+
+import org.bukkit.Material;
+import org.bukkit.inventory.ItemStack;
+
+import java.lang.ref.WeakReference;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+// Global interning pool for recorded equipment. Every distinct item resolves to one canonical
+// ItemStack, so identical gear across players is stored once and can be compared by reference.
+// Canonical stacks are shared and must never be mutated. Entries vanish once no frame holds them.
+public final class ItemPool {
+
+    private static final Map<ItemStack, WeakReference<ItemStack>> POOL = new WeakHashMap<>();
+
+    private ItemPool() {
+    }
+
+    public static ItemStack intern(ItemStack item) {
+        if (item == null || item.getType() == Material.AIR) return null;
+        synchronized (POOL) {
+            WeakReference<ItemStack> ref = POOL.get(item);
+            ItemStack canonical = ref != null ? ref.get() : null;
+            if (canonical == null) {
+                // Copy into a plain ItemStack so the pool never holds a live inventory mirror.
+                canonical = new ItemStack(item);
+                POOL.put(canonical, new WeakReference<>(canonical));
+            }
+            return canonical;
+        }
+    }
+
+    public static ItemStack[] intern(ItemStack[] items) {
+        if (items == null) return null;
+        ItemStack[] interned = new ItemStack[items.length];
+        for (int i = 0; i < items.length; i++) {
+            interned[i] = intern(items[i]);
+        }
+        return interned;
+    }
+
+    public static boolean sameItems(ItemStack[] a, ItemStack[] b) {
+        if (a == b) return true;
+        if (a == null || b == null || a.length != b.length) return false;
+        for (int i = 0; i < a.length; i++) {
+            if (a[i] != b[i]) return false;
+        }
+        return true;
+    }
+
+    public static int size() {
+        synchronized (POOL) {
+            return POOL.size();
+        }
+    }
+}
@@ -12,6 +12,7 @@ public class ReplayFrame {
     private final boolean isSneaking;
     private final ItemStack itemInHand;
     private final ItemStack[] armor;
+    private final int tick;
 
     public ReplayFrame(Location location, PlayerAction action, boolean isSneaking, ItemStack itemInHand, ItemStack[] armor) {
         this.x = location.getX();
@@ -26,6 +27,46 @@ public class ReplayFrame {
         // Store directly, caller must handle cloning/reuse
         this.itemInHand = itemInHand;
         this.armor = armor;
+        this.tick = 0;
+    }
+
+    public ReplayFrame(String worldName, double x, double y, double z, float yaw, float pitch, PlayerAction action, boolean isSneaking, ItemStack itemInHand, ItemStack[] armor) {
+        this(worldName, x, y, z, yaw, pitch, action, isSneaking, itemInHand, armor, 0);
+    }
+
+    public ReplayFrame(String worldName, double x, double y, double z, float yaw, float pitch, PlayerAction action, boolean isSneaking, ItemStack itemInHand, ItemStack[] armor, int tick) {
+        this.x = x;
+        this.y = y;
+        this.z = z;
+        this.yaw = yaw;
+        this.pitch = pitch;
+        this.worldName = worldName;
+
+        this.action = action;
+        this.isSneaking = isSneaking;
+        this.itemInHand = itemInHand;
+        this.armor = armor;
+        this.tick = tick;
+    }
+
+    // Position and rotation are blended linearly (yaw along the shortest arc); the discrete
+    // state is held from the earlier keyframe and the one-shot action is not repeated.
+    public static ReplayFrame interpolate(ReplayFrame from, ReplayFrame to, int tick) {
+        if (tick <= from.tick) return from;
+        if (tick >= to.tick) return to;
+        double t = (double) (tick - from.tick) / (to.tick - from.tick);
+
+        float yawDelta = to.yaw - from.yaw;
+        while (yawDelta > 180.0f) yawDelta -= 360.0f;
+        while (yawDelta < -180.0f) yawDelta += 360.0f;
+
+        return new ReplayFrame(from.worldName,
+                from.x + (to.x - from.x) * t,
+                from.y + (to.y - from.y) * t,
+                from.z + (to.z - from.z) * t,
+                (float) (from.yaw + yawDelta * t),
+                (float) (from.pitch + (to.pitch - from.pitch) * t),
+                PlayerAction.NONE, from.isSneaking, from.itemInHand, from.armor, tick);
     }
 
     public Location getLocation() {
@@ -39,6 +80,8 @@ public class ReplayFrame {
     public double getZ() { return z; }
     public float getYaw() { return yaw; }
     public float getPitch() { return pitch; }
+    public String getWorldName() { return worldName; }
+    public int getTick() { return tick; }
 
     public PlayerAction getAction() {
         return action;
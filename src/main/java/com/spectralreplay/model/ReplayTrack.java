@@ -0,0 +1,20 @@
+package com.spectralreplay.model;
+
+import java.util.List;
+import java.util.UUID;
+
+// One recorded player inside a replay. Tracks of the same replay share its tick timeline,
+// so frame N of every track happened at the same moment.
+public class ReplayTrack {
+    public final UUID uuid;
+    public final FrameCursor frames;
+
+    public ReplayTrack(UUID uuid, FrameCursor frames) {
+        this.uuid = uuid;
+        this.frames = frames;
+    }
+
+    public static ReplayTrack of(UUID uuid, List<ReplayFrame> frames) {
+        return new ReplayTrack(uuid, FrameCursor.of(frames));
+    }
+}